@@ -0,0 +1,44 @@
+SET
+    default_storage_engine = INNODB;
+
+SELECT `version_4`
+FROM `version`;
+
+-- partition bounds are calculated in UTC, the retention job does the same
+SET
+    time_zone = '+00:00';
+
+-- partitioning requires the partition column to be part of every unique key
+ALTER TABLE `chatlog`
+    DROP INDEX `id`,
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (`id`, `timestamp`),
+    ADD INDEX `timestamp` (`timestamp`);
+
+-- partitions are named after the month they contain, older rows go to p_history, the retention job creates new months ahead of time
+SET @month = DATE_FORMAT(NOW(), '%Y-%m-01');
+SET @next = @month + INTERVAL 1 MONTH;
+SET @after = @month + INTERVAL 2 MONTH;
+
+SET @sql = CONCAT(
+        'ALTER TABLE `chatlog` PARTITION BY RANGE (UNIX_TIMESTAMP(`timestamp`)) (',
+        'PARTITION `p_history` VALUES LESS THAN (', UNIX_TIMESTAMP(@month), '), ',
+        'PARTITION `p', DATE_FORMAT(@month, '%Y%m'), '` VALUES LESS THAN (', UNIX_TIMESTAMP(@next), '), ',
+        'PARTITION `p', DATE_FORMAT(@next, '%Y%m'), '` VALUES LESS THAN (', UNIX_TIMESTAMP(@after), '), ',
+        'PARTITION `p_future` VALUES LESS THAN MAXVALUE)');
+PREPARE stmt FROM @sql;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- traces have no timestamp, but message ids are snowflakes which start with the milliseconds since the discord epoch
+SET @sql = CONCAT(
+        'ALTER TABLE `discord_message_trace` PARTITION BY RANGE (`messageId`) (',
+        'PARTITION `p_history` VALUES LESS THAN (', (UNIX_TIMESTAMP(@month) * 1000 - 1420070400000) << 22, '), ',
+        'PARTITION `p', DATE_FORMAT(@month, '%Y%m'), '` VALUES LESS THAN (', (UNIX_TIMESTAMP(@next) * 1000 - 1420070400000) << 22, '), ',
+        'PARTITION `p', DATE_FORMAT(@next, '%Y%m'), '` VALUES LESS THAN (', (UNIX_TIMESTAMP(@after) * 1000 - 1420070400000) << 22, '), ',
+        'PARTITION `p_future` VALUES LESS THAN MAXVALUE)');
+PREPARE stmt FROM @sql;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+ALTER TABLE `version` RENAME COLUMN `version_4` TO `version_5`;
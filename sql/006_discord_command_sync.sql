@@ -0,0 +1,16 @@
+SET
+    default_storage_engine = INNODB;
+
+SELECT `version_5`
+FROM `version`;
+
+CREATE TABLE `discord_command_sync`
+(
+    `service` VARCHAR(255)    NOT NULL,
+    `guildId` BIGINT UNSIGNED NOT NULL,
+    `hash`    CHAR(64)        NOT NULL,
+
+    PRIMARY KEY (`service`, `guildId`)
+);
+
+ALTER TABLE `version` RENAME COLUMN `version_5` TO `version_6`;
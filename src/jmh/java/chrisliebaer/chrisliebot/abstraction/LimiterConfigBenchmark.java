@@ -0,0 +1,66 @@
+package chrisliebaer.chrisliebot.abstraction;
+
+import chrisliebaer.chrisliebot.command.ChrislieListener;
+import chrisliebaer.chrisliebot.config.flex.FlexConf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Compares splitting outgoing IRC messages with the old splitter, which split each line into words and counted
+ * characters instead of bytes.
+ */
+@State(Scope.Benchmark)
+public class LimiterConfigBenchmark {
+	
+	private static final int LIMIT = 400;
+	
+	@Param({"100", "1000", "10000"})
+	private int length;
+	
+	@Param({"ascii", "utf8"})
+	private String charset;
+	
+	private LimiterConfig cfg;
+	private String message;
+	
+	@Setup
+	public void setup() throws ChrislieListener.ListenerException {
+		cfg = LimiterConfig.of(new FlexConf(new FlexConf.Resolver() {
+			@Override
+			public Optional<Object> get(String key, Type type) {
+				return "limitercfg.maxLines".equals(key) ? Optional.of(Integer.MAX_VALUE) : Optional.empty();
+			}
+		}));
+		
+		// words of varying length with an occasional line break, similar to command output
+		var alphabet = "ascii".equals(charset) ? "abcdefghijklmnopqrstuvwxyz" : "abcdefghijklmnopäöüß€😀";
+		var codePoints = alphabet.codePoints().toArray();
+		var random = new Random(42);
+		var sb = new StringBuilder(length + 16);
+		while (sb.length() < length) {
+			int word = 1 + random.nextInt(12);
+			for (int i = 0; i < word; i++)
+				sb.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+			sb.append(random.nextInt(20) == 0 ? '\n' : ' ');
+		}
+		message = sb.toString();
+	}
+	
+	@Benchmark
+	public List<String> split() {
+		return cfg.split(message, LIMIT);
+	}
+	
+	@Benchmark
+	public List<String> legacy() {
+		return LegacySplitter.split(message, LIMIT);
+	}
+}
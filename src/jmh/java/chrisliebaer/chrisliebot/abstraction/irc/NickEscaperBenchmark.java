@@ -0,0 +1,60 @@
+package chrisliebaer.chrisliebot.abstraction.irc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares escaping nicknames in a message with the prefix tree against the pattern over all nicknames that was
+ * compiled for every message before.
+ */
+@State(Scope.Benchmark)
+public class NickEscaperBenchmark {
+	
+	@Param({"10", "100", "1000"})
+	private int users;
+	
+	private List<String> nicks;
+	private NickEscaper escaper;
+	private String message;
+	
+	@Setup
+	public void setup() {
+		var random = new Random(42);
+		nicks = new ArrayList<>(users);
+		for (int i = 0; i < users; i++)
+			nicks.add(word(random, 3 + random.nextInt(10)));
+		escaper = new NickEscaper(nicks);
+		
+		// a typical line of output mentions a few users
+		var sb = new StringBuilder();
+		for (int i = 0; i < 60; i++) {
+			sb.append(i % 15 == 0 ? nicks.get(random.nextInt(users)) : word(random, 1 + random.nextInt(8)));
+			sb.append(' ');
+		}
+		message = sb.toString();
+	}
+	
+	private static String word(Random random, int length) {
+		var sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			sb.append((char) ('a' + random.nextInt(26)));
+		return sb.toString();
+	}
+	
+	@Benchmark
+	public String escape() {
+		return escaper.escape(message);
+	}
+	
+	@Benchmark
+	public String legacy() {
+		return LegacyNickEscaper.escape(nicks, message);
+	}
+}
@@ -0,0 +1,192 @@
+package chrisliebaer.chrisliebot.config;
+
+import chrisliebaer.chrisliebot.abstraction.ChrislieChannel;
+import chrisliebaer.chrisliebot.abstraction.ChrislieGuild;
+import chrisliebaer.chrisliebot.abstraction.ChrislieMessage;
+import chrisliebaer.chrisliebot.abstraction.ChrislieOutput;
+import chrisliebaer.chrisliebot.abstraction.ChrislieService;
+import chrisliebaer.chrisliebot.abstraction.ChrislieUser;
+import chrisliebaer.chrisliebot.abstraction.LimiterConfig;
+import chrisliebaer.chrisliebot.config.flex.FlexConf;
+import chrisliebaer.chrisliebot.config.scope.ScopeMapping;
+import chrisliebaer.chrisliebot.config.scope.Selector;
+import chrisliebaer.chrisliebot.config.scope.selector.ChannelSelector;
+import chrisliebaer.chrisliebot.config.scope.selector.ServiceIdentifierSelector;
+import com.google.gson.Gson;
+import com.google.gson.JsonPrimitive;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Compares resolving the context of a channel by checking every mapping, by looking up candidates in the
+ * {@link MappingIndex} and by additionally caching the matched mappings of each origin. The 1000 mappings are spread
+ * over 10 services with 50 channels each, every 25th mapping applies to an entire service.
+ */
+@State(Scope.Benchmark)
+public class ContextResolverBenchmark {
+	
+	private static final int MAPPINGS = 1000;
+	private static final int SERVICES = 10;
+	private static final int CHANNELS = 50;
+	
+	private ContextResolver uncached;
+	private ContextResolver cached;
+	private List<ChrislieChannel> channels;
+	private int next;
+	
+	@Setup
+	public void setup() throws Selector.SelectorException {
+		uncached = new ContextResolver(mappings(), new Gson().fromJson("{\"enabled\": false, \"intern\": false}", ContextResolver.CacheConfig.class));
+		cached = new ContextResolver(mappings());
+		
+		List<ChrislieService> services = new ArrayList<>(SERVICES);
+		for (int i = 0; i < SERVICES; i++)
+			services.add(new Service("service" + i));
+		
+		channels = new ArrayList<>(SERVICES * CHANNELS);
+		for (int i = 0; i < CHANNELS; i++)
+			for (var service : services)
+				channels.add(new Channel(service, "#channel" + i));
+	}
+	
+	// each resolver needs its own mappings, since adaptive selectors keep measurements
+	private static List<ScopeMapping> mappings() throws Selector.SelectorException {
+		List<ScopeMapping> mappings = new ArrayList<>(MAPPINGS);
+		for (int i = 0; i < MAPPINGS; i++) {
+			List<Selector> selectors = new ArrayList<>(2);
+			
+			var service = new ServiceIdentifierSelector();
+			service.fromJson(null, new JsonPrimitive("service" + i % SERVICES));
+			selectors.add(service);
+			
+			if (i % 25 != 0) {
+				var channel = new ChannelSelector();
+				channel.fromJson(null, new JsonPrimitive("#channel" + i / SERVICES % CHANNELS));
+				selectors.add(channel);
+			}
+			
+			var group = new ChrislieGroup("group" + i, new FlexConf(), List.of(), List.of());
+			mappings.add(new ScopeMapping(selectors, List.of(group)));
+		}
+		return mappings;
+	}
+	
+	private ChrislieChannel channel() {
+		var channel = channels.get(next);
+		next = (next + 1) % channels.size();
+		return channel;
+	}
+	
+	@Benchmark
+	public ChrislieContext linear() {
+		return uncached.resolve(Selector::check, channel());
+	}
+	
+	@Benchmark
+	public ChrislieContext indexed() {
+		return uncached.resolve(channel());
+	}
+	
+	@Benchmark
+	public ChrislieContext cached() {
+		return cached.resolve(channel());
+	}
+	
+	private static final class Service implements ChrislieService {
+		
+		private final String identifier;
+		
+		private Service(String identifier) {
+			this.identifier = identifier;
+		}
+		
+		@Override
+		public String identifier() {
+			return identifier;
+		}
+		
+		@Override
+		public void awaitReady() {}
+		
+		@Override
+		public ChrislieService sink(Consumer<ChrislieMessage> sink) {
+			return this;
+		}
+		
+		@Override
+		public Optional<? extends ChrislieChannel> channel(String identifier) {
+			return Optional.empty();
+		}
+		
+		@Override
+		public Optional<? extends ChrislieUser> user(String identifier) {
+			return Optional.empty();
+		}
+		
+		@Override
+		public Optional<? extends ChrislieGuild> guild(String identifier) {
+			return Optional.empty();
+		}
+		
+		@Override
+		public void exit() {}
+	}
+	
+	private static final class Channel implements ChrislieChannel {
+		
+		private final ChrislieService service;
+		private final String identifier;
+		
+		private Channel(ChrislieService service, String identifier) {
+			this.service = service;
+			this.identifier = identifier;
+		}
+		
+		@Override
+		public ChrislieService service() {
+			return service;
+		}
+		
+		@Override
+		public String identifier() {
+			return identifier;
+		}
+		
+		@Override
+		public String displayName() {
+			return identifier;
+		}
+		
+		@Override
+		public boolean isDirectMessage() {
+			return false;
+		}
+		
+		@Override
+		public List<? extends ChrislieUser> users() {
+			return List.of();
+		}
+		
+		@Override
+		public Optional<? extends ChrislieUser> resolve(String callName) {
+			return Optional.empty();
+		}
+		
+		@Override
+		public Optional<? extends ChrislieGuild> guild() {
+			return Optional.empty();
+		}
+		
+		@Override
+		public ChrislieOutput output(LimiterConfig limiterConfig) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -8,11 +8,14 @@ import chrisliebaer.chrisliebot.config.ContextResolver;
 import chrisliebaer.chrisliebot.config.CoreConfig;
 import chrisliebaer.chrisliebot.config.JsonBotConfig;
 import chrisliebaer.chrisliebot.config.scope.ScopeMapping;
+import chrisliebaer.chrisliebot.config.scope.selector.CombinationSelector;
 import chrisliebaer.chrisliebot.util.GsonValidator;
+import chrisliebaer.chrisliebot.util.LaneExecutor;
 import chrisliebaer.chrisliebot.util.PatternTypeAdapter;
 import chrisliebaer.chrisliebot.util.SystemProperty;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.gson.GsonBuilder;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
@@ -22,10 +25,13 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 @Slf4j
@@ -69,12 +75,18 @@ public class Chrisliebot extends AbstractIdleService {
 	/**
 	 * Dispatcher instance for services.
 	 */
-	private ChrislieDispatcher dispatcher;
+	private volatile ChrislieDispatcher dispatcher;
 	
 	/**
 	 * Resolver that's used in dispatcher.
 	 */
-	private ContextResolver resolver;
+	private volatile ContextResolver resolver;
+	
+	/**
+	 * Held while dispatcher and resolver are replaced, so a reload can't interfere with a shutdown.
+	 */
+	private final Object configLock = new Object();
+	private final AtomicBoolean reloading = new AtomicBoolean();
 	
 	/**
 	 * Exit code that will be returned if proper shutdown occurs.
@@ -145,7 +157,7 @@ public class Chrisliebot extends AbstractIdleService {
 		}
 		
 		// setup shared ressources as they might be required by some services
-		sharedResources = new SharedResources(coreCfg.databasePool(), gson);
+		sharedResources = new SharedResources(coreCfg.databasePool(), coreCfg.partitioning(), gson);
 		sharedResources.startAsync().awaitRunning();
 		
 		// bot config requires running serivces, so services go first
@@ -176,10 +188,10 @@ public class Chrisliebot extends AbstractIdleService {
 		}
 		
 		// on the first load, we abort on errors, since we have no fallback
-		loadBotConfig();
+		activate(loadBotConfig());
 	}
 	
-	private void loadBotConfig() throws ChrisliebotException {
+	private LoadedConfig loadBotConfig() throws ChrisliebotException {
 		
 		// deserializing config
 		JsonBotConfig botConfig;
@@ -198,7 +210,7 @@ public class Chrisliebot extends AbstractIdleService {
 		}
 		
 		// listeners are created, but not yet initialized or started since this requires a context resolver and a chrisliebot instance, so do that
-		resolver = new ContextResolver(scopeMappings);
+		var resolver = new ContextResolver(scopeMappings, botConfig.contextCache(), botConfig.adaptiveSelectors());
 		log.info("found {} listeners, {} groups and {} mappings",
 				resolver.envelopes().size(), resolver.groups().size(), resolver.mappings().size());
 		
@@ -215,33 +227,98 @@ public class Chrisliebot extends AbstractIdleService {
 			}
 		}
 		log.debug("calling start() on listeners");
+		List<ChrislieListener.Envelope> started = new ArrayList<>();
 		for (var envelope : resolver.envelopes()) {
 			try {
 				log.trace("calling start() on {}", envelope);
 				envelope.listener().start(this, resolver);
+				started.add(envelope);
 			} catch (ChrislieListener.ListenerException e) {
+				stopListeners(started, resolver); // failed listener is expected to clean up after itself
 				throw new ChrisliebotException(String.format("error in start() of listener with source `%s`", envelope.source()), e);
 			} catch (@SuppressWarnings("OverlyBroadCatchBlock") Exception e) {
+				stopListeners(started, resolver);
 				throw new ChrisliebotException(String.format("unhandled error in start() of listener with source `%s`", envelope.source()), e);
 			}
 		}
 		
+		return new LoadedConfig(resolver, botConfig.dispatcher());
+	}
+	
+	// hands all services over to the given config, must only be called on startup or while holding the config lock
+	private void activate(LoadedConfig cfg) {
 		// announce the resolver that's going to be used to services for command suggestion
-		services.values().forEach(s -> s.announceResolver(resolver));
+		services.values().forEach(s -> s.announceResolver(cfg.resolver));
 		
 		// create dispatcher and hook into services
-		dispatcher = new ChrislieDispatcher(this, resolver);
+		var dispatcher = new ChrislieDispatcher(this, cfg.resolver, cfg.dispatcher);
+		this.dispatcher = dispatcher;
+		resolver = cfg.resolver;
 		services.values().forEach(s -> s.sink(dispatcher::dispatch));
 	}
 	
+	private void reloadBotConfig() throws ChrisliebotException {
+		// the new config is built while the current config keeps handling messages, this is the slow part
+		log.info("reloading bot config from `{}`", botFile);
+		var cfg = loadBotConfig();
+		
+		synchronized (configLock) {
+			if (!isRunning()) {
+				stopListeners(cfg.resolver.envelopes(), cfg.resolver);
+				throw new ChrisliebotException("bot is shutting down, discarding reloaded config");
+			}
+			
+			var oldDispatcher = dispatcher;
+			var oldResolver = resolver;
+			activate(cfg);
+			log.info("new config is active, draining old dispatcher");
+			
+			// old listeners might still be handling messages that arrived before the swap
+			try {
+				if (!oldDispatcher.drain())
+					log.warn("old dispatcher did not drain in time, some listeners might still be processing messages while being stopped");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.warn("interrupted while draining old dispatcher, stopping old listeners anyway");
+			}
+			
+			stopListeners(oldResolver.envelopes(), oldResolver);
+		}
+		log.info("finished reloading bot config: {} listeners, {} groups and {} mappings",
+				cfg.resolver.envelopes().size(), cfg.resolver.groups().size(), cfg.resolver.mappings().size());
+	}
+	
+	// used for discarded configs, so a single failing listener must not keep the others running
+	private void stopListeners(Collection<ChrislieListener.Envelope> envelopes, ContextResolver resolver) {
+		log.debug("calling stop() on {} listeners", envelopes.size());
+		for (var envelope : envelopes) {
+			try {
+				log.trace("calling stop() on {}", envelope);
+				envelope.listener().stop(this, resolver);
+			} catch (ChrislieListener.ListenerException e) {
+				log.error("failed to stop listener with source `{}`", envelope.source(), e);
+			} catch (@SuppressWarnings("OverlyBroadCatchBlock") Exception e) {
+				log.error("unhandled error in stop() of listener with source `{}`", envelope.source(), e);
+			}
+		}
+	}
+	
 	@Override
 	protected void shutDown() throws ChrisliebotException {
+		// wait for a running reload to finish swapping configs, later reloads will see that we are no longer running
+		synchronized (configLock) {
+			shutDownLocked();
+		}
+	}
+	
+	private void shutDownLocked() throws ChrisliebotException {
 		// unhook services from dispatcher to stop messsage stream
 		services.values().forEach(s -> s.sink(null));
 		
 		// shutdown dispatcher to cut listeners from message sink
 		try {
-			dispatcher.shutdown();
+			if (!dispatcher.shutdown())
+				log.warn("dispatcher did not drain in time, some listeners might still be processing messages while shutting down");
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			throw new ChrisliebotException("interrupted while waiting for dispatcher to shut down", e);
@@ -316,5 +393,50 @@ public class Chrisliebot extends AbstractIdleService {
 		public void upgrade() {
 			shutdownWithCode(EXIT_CODE_UPGRADE);
 		}
+		
+		public Optional<LaneExecutor.Stats> dispatcherStats() {
+			return dispatcher.laneStats();
+		}
+		
+		public List<CombinationSelector.SelectorStats> selectorStats() {
+			return resolver.selectorStats();
+		}
+		
+		/**
+		 * Reloads the bot config in the background. Services stay connected and the current config keeps handling
+		 * messages until the new config has been fully started. If the new config fails to load, the current config
+		 * stays active.
+		 *
+		 * @return A future that completes once the new config is active and all listeners of the old config have been
+		 * stopped.
+		 */
+		public CompletableFuture<Void> reload() {
+			if (!reloading.compareAndSet(false, true))
+				return CompletableFuture.failedFuture(new ChrisliebotException("reload is already in progress"));
+			
+			var future = new CompletableFuture<Void>();
+			
+			// can't use shared executors, since listeners might block them during init() and start()
+			new Thread(() -> {
+				try {
+					reloadBotConfig();
+					reloading.set(false);
+					future.complete(null);
+				} catch (@SuppressWarnings("OverlyBroadCatchBlock") Exception e) {
+					log.error("failed to reload bot config, keeping current config", e);
+					reloading.set(false);
+					future.completeExceptionally(e);
+				}
+			}, "ConfigReload").start();
+			
+			return future;
+		}
+	}
+	
+	@AllArgsConstructor
+	private static final class LoadedConfig {
+		
+		private final ContextResolver resolver;
+		private final ChrislieDispatcher.Config dispatcher;
 	}
 }
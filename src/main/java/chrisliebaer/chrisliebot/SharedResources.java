@@ -1,6 +1,7 @@
 package chrisliebaer.chrisliebot;
 
 import chrisliebaer.chrisliebot.util.GsonValidator;
+import chrisliebaer.chrisliebot.util.PartitionMaintenance;
 import chrisliebaer.chrisliebot.util.VersionUtil;
 import com.google.common.util.concurrent.AbstractIdleService;
 import lombok.Getter;
@@ -14,6 +15,7 @@ import javax.sql.DataSource;
 import java.sql.SQLException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class SharedResources extends AbstractIdleService {
@@ -25,9 +27,11 @@ public class SharedResources extends AbstractIdleService {
 	@Getter private GsonValidator gson;
 	
 	private MariaDbPoolDataSource dataSource;
+	private PartitionMaintenance.Config partitioning;
 	
-	public SharedResources(@NonNull String dataSource, @NonNull GsonValidator gson) {
+	public SharedResources(@NonNull String dataSource, @NonNull PartitionMaintenance.Config partitioning, @NonNull GsonValidator gson) {
 		this.dataSource = new MariaDbPoolDataSource(dataSource);
+		this.partitioning = partitioning;
 		this.gson = gson;
 	}
 	
@@ -59,6 +63,10 @@ public class SharedResources extends AbstractIdleService {
 			t.setUncaughtExceptionHandler((t1, e) -> log.error("uncaught exception in shared timer", e));
 			return t;
 		});
+		
+		// keeps log tables partitioned by month and drops expired months
+		if (partitioning.enabled())
+			timer.scheduleWithFixedDelay(new PartitionMaintenance(dataSource, partitioning), 0, partitioning.interval(), TimeUnit.HOURS);
 	}
 	
 	@Override
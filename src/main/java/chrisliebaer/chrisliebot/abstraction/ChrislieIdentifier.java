@@ -4,6 +4,7 @@ import chrisliebaer.chrisliebot.Chrisliebot;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.ToString;
 import lombok.experimental.UtilityClass;
 
@@ -32,4 +33,48 @@ public class ChrislieIdentifier {
 			return bot.service(service).flatMap(service -> service.channel(channel));
 		}
 	}
+	
+	/**
+	 * Identifies the origin of an entity that is checked against the scope mappings. Fields that don't exist for the
+	 * given entity (like the channel of a guild) are {@code null}.
+	 */
+	@ToString
+	@EqualsAndHashCode
+	@AllArgsConstructor(access = AccessLevel.PRIVATE)
+	public static final class OriginIdentifier {
+		
+		@Getter private final String service;
+		@Getter private final String guild;
+		@Getter private final String channel;
+		@Getter private final String user;
+		
+		public static OriginIdentifier of(ChrislieMessage message) {
+			var channel = message.channel();
+			return new OriginIdentifier(
+					message.service().identifier(),
+					channel.guild().map(ChrislieGuild::identifier).orElse(null),
+					channel.identifier(),
+					message.user().identifier());
+		}
+		
+		public static OriginIdentifier of(ChrislieChannel channel) {
+			return new OriginIdentifier(
+					channel.service().identifier(),
+					channel.guild().map(ChrislieGuild::identifier).orElse(null),
+					channel.identifier(),
+					null);
+		}
+		
+		public static OriginIdentifier of(ChrislieGuild guild) {
+			return new OriginIdentifier(guild.service().identifier(), guild.identifier(), null, null);
+		}
+		
+		public static OriginIdentifier of(ChrislieUser user) {
+			return new OriginIdentifier(user.service().identifier(), null, null, user.identifier());
+		}
+		
+		public static OriginIdentifier of(ChrislieService service) {
+			return new OriginIdentifier(service.identifier(), null, null, null);
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package chrisliebaer.chrisliebot.abstraction;
 
+import chrisliebaer.chrisliebot.command.ChrislieListener;
 import lombok.NonNull;
 
 import java.awt.Color;
@@ -35,6 +36,16 @@ public interface ChrislieOutput {
 	
 	public default void markAsError() {}
 	
+	/**
+	 * Tells this output which listener it belongs to. Services may use this to give each listener a distinct style.
+	 *
+	 * @param listener The listener that created this output.
+	 * @return This output.
+	 */
+	public default ChrislieOutput origin(ChrislieListener listener) {
+		return this;
+	}
+	
 	public ChrislieOutput color(Color color);
 	
 	public ChrislieOutput color(int color);
@@ -2,30 +2,30 @@ package chrisliebaer.chrisliebot.abstraction;
 
 import chrisliebaer.chrisliebot.C;
 import chrisliebaer.chrisliebot.command.ChrislieListener;
+import chrisliebaer.chrisliebot.config.flex.CommonFlex;
 import chrisliebaer.chrisliebot.config.flex.FlexConf;
 import chrisliebaer.chrisliebot.util.OutOfBandTransmission;
 import com.google.common.base.Preconditions;
+import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.kitteh.irc.client.library.element.MessageReceiver;
 import org.kitteh.irc.client.library.util.CtcpUtil;
 import org.kitteh.irc.client.library.util.Format;
 
 import java.io.IOException;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 @Slf4j
 public class LimiterConfig {
 	
-	private static final String FLEX_OFFSET = "limitercfg.offset";
-	private static final String FLEX_MAX_LINES = "limitercfg.maxLines";
-	private static final String FLEX_STRIP_LINEBREAK = "limitercfg.stripLinebreak";
-	private static final String FLEX_CUT_NOTICE = "limitercfg.cutNotice";
-	private static final String FLEX_OUT_OF_BAND = "limitercfg.oob";
-	private static final String FLEX_OUT_OF_BAND_DISABLE = "limitercfg.oob.disable";
-	private static final String FLEX_STRIP_IRC_FORMATTING = "limitercfg.stripIrc";
+	private static final CommonFlex.Key<Integer> FLEX_OFFSET = CommonFlex.key("limitercfg.offset", Integer.class, 0);
+	private static final CommonFlex.Key<Integer> FLEX_MAX_LINES = CommonFlex.key("limitercfg.maxLines", Integer.class);
+	private static final CommonFlex.Key<Boolean> FLEX_STRIP_LINEBREAK = CommonFlex.key("limitercfg.stripLinebreak", Boolean.class, false);
+	private static final CommonFlex.Key<Boolean> FLEX_CUT_NOTICE = CommonFlex.key("limitercfg.cutNotice", Boolean.class, false);
+	private static final CommonFlex.Key<OutOfBandTransmission> FLEX_OUT_OF_BAND = CommonFlex.key("limitercfg.oob", OutOfBandTransmission.class);
+	private static final CommonFlex.Key<Boolean> FLEX_OUT_OF_BAND_DISABLE = CommonFlex.key("limitercfg.oob.disable", Boolean.class, false);
+	private static final CommonFlex.Key<Boolean> FLEX_STRIP_IRC_FORMATTING = CommonFlex.key("limitercfg.stripIrc", Boolean.class, false);
 	
 	// offset will be added to the size parameter of split method
 	private int offset;
@@ -45,21 +45,53 @@ public class LimiterConfig {
 	// strip all irc formatting codes from output
 	private boolean stripIrcFormatting;
 	
+	// decides which output is sent first if the service has to hold back messages
+	private Priority priority = Priority.INTERACTIVE;
+	
+	// line buffers are reused since output is usually sent from a small set of threads
+	private static final ThreadLocal<Splitter> SPLITTER = ThreadLocal.withInitial(Splitter::new);
+	
 	public static LimiterConfig of(FlexConf flex) throws ChrislieListener.ListenerException {
 		var cfg = new LimiterConfig();
-		cfg.offset = flex.getInteger(FLEX_OFFSET).orElse(0);
-		cfg.maxLines = flex.getIntegerOrFail(FLEX_MAX_LINES);
+		cfg.offset = flex.getOrFail(FLEX_OFFSET);
+		cfg.maxLines = flex.getOrFail(FLEX_MAX_LINES);
 		cfg.stripLineBreak = flex.isSet(FLEX_STRIP_LINEBREAK);
 		cfg.appendCutNotice = flex.isSet(FLEX_CUT_NOTICE);
 		cfg.stripIrcFormatting = flex.isSet(FLEX_STRIP_IRC_FORMATTING);
 		
 		if (!flex.isSet(FLEX_OUT_OF_BAND_DISABLE))
-			cfg.outOfBand = flex.get(FLEX_OUT_OF_BAND, OutOfBandTransmission.class).orElse(null);
+			cfg.outOfBand = flex.get(FLEX_OUT_OF_BAND).orElse(null);
 		
 		return cfg;
 	}
 	
+	public LimiterConfig priority(@NonNull Priority priority) {
+		this.priority = priority;
+		return this;
+	}
+	
+	public Priority priority() {
+		return priority;
+	}
+	
 	public LimiterConfig send(MessageReceiver receiver, String message) {
+		receiver.sendMultiLineMessage(sanitize(message), this::split);
+		return this;
+	}
+	
+	/**
+	 * Prepares the given message exactly like {@link #send(MessageReceiver, String)} would, but returns the resulting
+	 * lines instead of sending them. Used by services that schedule lines on their own.
+	 *
+	 * @param message The message to send.
+	 * @param limit   The maximum number of bytes per line.
+	 * @return The lines to send.
+	 */
+	public List<String> lines(String message, int limit) {
+		return split(sanitize(message), limit);
+	}
+	
+	private String sanitize(String message) {
 		
 		// remove illegal characters
 		message = message.replace("\0", "");
@@ -67,11 +99,18 @@ public class LimiterConfig {
 		if (stripLineBreak)
 			message = C.NEWLINE_PATTERN.matcher(message).replaceAll(" ");
 		
-		receiver.sendMultiLineMessage(message, this::split);
-		
-		return this;
+		return message;
 	}
 	
+	/**
+	 * Splits the given message into lines that fit into the given limit. IRC limits messages by their size in bytes,
+	 * so lengths are measured in UTF-8. Lines are preferably broken at spaces, words that don't fit on a single line
+	 * are broken at the last code point that fits. Surrogate pairs and formatting sequences are never split.
+	 *
+	 * @param message The message to split.
+	 * @param limit   The maximum number of bytes per line.
+	 * @return The lines to send.
+	 */
 	public List<String> split(String message, int limit) {
 		// limit is broken when connected to znc, a hard coded offset should fix that
 		limit += offset;
@@ -87,51 +126,38 @@ public class LimiterConfig {
 			prefix = String.valueOf(C.ZERO_WIDTH_NO_BREAK_SPACE);
 			
 			// when prefix is set, it will reduce the line capacity, so we need to adjust our limit accordingly
-			limit -= prefix.length();
+			limit -= utf8Length(prefix);
 		}
 		
 		Preconditions.checkArgument(limit > 0, "limit must be greater 0 or impossible to find solution");
 		
 		List<String> out = new ArrayList<>((message.length() / limit) + 1); // make educated guess to prevent reallocation in most cases
+		var splitter = SPLITTER.get();
+		splitter.reset(prefix, limit, out);
 		
-		// each remaining newline requires processing the following characters as a seperate line, so we split the input at this level and process line by line
-		for (var line : C.NEWLINE_PATTERN.split(message)) {
-			ArrayDeque<String> remain = new ArrayDeque<>(Arrays.asList(line.split(" ")));
-			StringBuilder sb = new StringBuilder();
+		int i = 0;
+		int len = message.length();
+		while (i < len) {
+			char c = message.charAt(i);
 			
-			while (!remain.isEmpty()) {
-				
-				// check if adding string would exceed limit
-				if (remain.peekFirst().length() + sb.length() + 1 > limit) { // adding one for space
-					
-					// force split string if stringbuffer is empty, this happens if next word is too big even when on a single line
-					if (sb.length() == 0) {
-						String s = remain.removeFirst();
-						sb.append(s, 0, limit + 1);
-						
-						// push remaining string back to stack
-						remain.addFirst(s.substring(limit + 1));
-						
-						// continue operation
-						continue;
-					}
-					
-					// commit current string buffer to output
-					out.add(prefix + sb.toString());
-					sb.setLength(0);
-				} else {
-					// append current string to string builder
-					if (sb.length() != 0)
-						sb.append(' ');
-					
-					sb.append(remain.removeFirst());
-				}
+			// each newline requires processing the following characters as a seperate line
+			if (isLineBreak(c)) {
+				splitter.commitLine();
+				i += c == '\r' && i + 1 < len && message.charAt(i + 1) == '\n' ? 2 : 1;
+				continue;
 			}
 			
-			// append pending string builer, if not empty
-			if (sb.length() != 0)
-				out.add(prefix + sb.toString());
+			if (c == ' ') {
+				splitter.space();
+				i++;
+				continue;
+			}
+			
+			int unit = unitLength(message, i);
+			splitter.append(message, i, i + unit, utf8Length(message, i, i + unit));
+			i += unit;
 		}
+		splitter.finish();
 		
 		// we need to check if the output exceeds our limits and take appropriate action
 		int excess = out.size() - maxLines;
@@ -145,11 +171,11 @@ public class LimiterConfig {
 					String notice = String.format("(%s Zeile(n) wurden abgeschnitten.)", excess);
 					
 					// while highly unlikely, it might be possible so we need to check
-					if (notice.length() <= limit) {
+					if (utf8Length(notice) <= limit) {
 						
 						// if the notice would exceed the last lines limit, we append a new line...
 						var last = out.get(out.size() - 1);
-						if (last.length() + notice.length() + 1 > limit) { // +1 for space
+						if (utf8Length(last) - utf8Length(prefix) + utf8Length(notice) + 1 > limit) { // +1 for space
 							out.add(notice);
 						} else { // ...otherwise we append to the last line
 							out.set(out.size() - 1, last + " " + notice);
@@ -168,4 +194,156 @@ public class LimiterConfig {
 		
 		return out;
 	}
+	
+	// all characters that are matched by \\R, carriage return followed by line feed is handled by the caller
+	private static boolean isLineBreak(char c) {
+		return c == '\n' || c == '\r' || c == '\u000B' || c == '\f' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+	
+	// returns the number of chars that have to stay together, starting at the given index
+	private static int unitLength(String s, int i) {
+		char c = s.charAt(i);
+		if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)))
+			return 2;
+		
+		// colors are followed by up to two digits for foreground and optionally a comma with up to two digits for background
+		if (c == Format.COLOR_CHAR) {
+			int end = skipDigits(s, i + 1);
+			if (end > i + 1 && end + 1 < s.length() && s.charAt(end) == ',' && Character.isDigit(s.charAt(end + 1)))
+				end = skipDigits(s, end + 1);
+			return end - i;
+		}
+		
+		return 1;
+	}
+	
+	private static int skipDigits(String s, int i) {
+		int end = Math.min(i + 2, s.length());
+		while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+			i++;
+		return i;
+	}
+	
+	private static int utf8Length(String s) {
+		return utf8Length(s, 0, s.length());
+	}
+	
+	private static int utf8Length(String s, int start, int end) {
+		int bytes = 0;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				bytes++;
+			} else if (c < 0x800) {
+				bytes += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+				bytes += 4;
+				i++;
+			} else {
+				bytes += 3;
+			}
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Greedy line builder that keeps track of the last space in the current line, so the line can be broken there once
+	 * the next word doesn't fit anymore. Instances are reused by each thread to avoid allocating buffers for every
+	 * message.
+	 */
+	private static final class Splitter {
+		
+		private final StringBuilder sb = new StringBuilder(512);
+		
+		private String prefix;
+		private int limit;
+		private List<String> out;
+		
+		private int bytes; // size of current line, excluding prefix
+		private int breakAt; // index of last space in current line, -1 if there is none
+		private int bytesAtBreak;
+		
+		private void reset(String prefix, int limit, List<String> out) {
+			this.prefix = prefix;
+			this.limit = limit;
+			this.out = out;
+			clear();
+		}
+		
+		private void clear() {
+			sb.setLength(0);
+			sb.append(prefix);
+			bytes = 0;
+			breakAt = -1;
+		}
+		
+		private void space() {
+			// leading spaces are dropped, just like spaces at which lines are broken
+			if (bytes == 0)
+				return;
+			
+			if (bytes + 1 > limit) {
+				commitLine();
+				return;
+			}
+			
+			breakAt = sb.length();
+			bytesAtBreak = bytes;
+			sb.append(' ');
+			bytes++;
+		}
+		
+		private void append(String s, int start, int end, int unitBytes) {
+			if (bytes + unitBytes > limit) {
+				if (breakAt >= 0) {
+					// move last word to next line
+					var word = sb.substring(breakAt + 1);
+					int wordBytes = bytes - bytesAtBreak - 1;
+					sb.setLength(breakAt);
+					commit();
+					sb.append(word);
+					bytes = wordBytes;
+				}
+				
+				// word is too long for a single line, so we have to break it
+				if (bytes + unitBytes > limit)
+					commitLine();
+			}
+			
+			sb.append(s, start, end);
+			bytes += unitBytes;
+		}
+		
+		// commits the pending line and drops the reference to the output, since this instance outlives the call
+		private void finish() {
+			commitLine();
+			out = null;
+		}
+		
+		private void commitLine() {
+			if (bytes > 0)
+				commit();
+			else
+				clear();
+		}
+		
+		private void commit() {
+			// trailing spaces carry no information
+			while (sb.length() > prefix.length() && sb.charAt(sb.length() - 1) == ' ')
+				sb.setLength(sb.length() - 1);
+			
+			out.add(sb.toString());
+			clear();
+		}
+	}
+	
+	/**
+	 * Output priority, ordered from most to least urgent. Output that was requested by a user should not wait for
+	 * scheduled output, which in turn should not wait for feeds.
+	 */
+	public enum Priority {
+		INTERACTIVE,
+		TIMER,
+		FEED
+	}
 }
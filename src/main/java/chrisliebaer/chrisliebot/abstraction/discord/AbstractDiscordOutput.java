@@ -6,7 +6,6 @@ import chrisliebaer.chrisliebot.abstraction.PlainOutput;
 import chrisliebaer.chrisliebot.abstraction.PlainOutputImpl;
 import chrisliebaer.chrisliebot.command.ChrislieListener;
 import lombok.NonNull;
-import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.MessageBuilder;
 import net.dv8tion.jda.api.entities.Message;
@@ -18,9 +17,26 @@ import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
-@Slf4j
 public abstract class AbstractDiscordOutput<RestObject> implements ChrislieOutput {
 	
+	// limits stack walking to the frames that might belong to the calling listener
+	private static final int MAX_STACK_DEPTH = 32;
+	private static final StackWalker STACK_WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+	
+	// color of each class, empty if class is not part of a listener
+	private static final ClassValue<Optional<Color>> LISTENER_COLORS = new ClassValue<>() {
+		@Override
+		protected Optional<Color> computeValue(Class<?> type) {
+			// walk up to outer classes, since listeners might create outputs from nested classes
+			for (var clazz = type; clazz != null; clazz = clazz.getEnclosingClass()) {
+				// ChrislieListener and its nested interfaces are part of invocation, so we need to exclude them
+				if (!clazz.isInterface() && ChrislieListener.class.isAssignableFrom(clazz))
+					return Optional.of(C.hashColor(clazz.getSimpleName().getBytes(StandardCharsets.UTF_8)));
+			}
+			return Optional.empty();
+		}
+	};
+	
 	
 	private final EmbedBuilder embedBuilder = new EmbedBuilder();
 	private final DiscordPlainOutput plain = new DiscordPlainOutput(AbstractDiscordOutput::escape4Discord, DiscordFormatter::format);
@@ -29,14 +45,14 @@ public abstract class AbstractDiscordOutput<RestObject> implements ChrislieOutpu
 	private String authorName, authorUrl, authorIcon;
 	
 	
-	/* jda will consider an embed with only a color to be valid, so setting the color based on the stack trace in the
-	 * constructor will always create an embed, which is not what we want, so instead we track the color and only
-	 * apply it during the final build operation if the color hasn't been set up until this point
+	/* jda will consider an embed with only a color to be valid, so setting the color of the listener right away will
+	 * always create an embed, which is not what we want, so instead we track the color and only apply it during the
+	 * final build operation if the color hasn't been set up until this point
 	 *
-	 * since we need the proper call stack for this, we have to store the color in the constructor
+	 * the listener is usually provided by the invocation, otherwise we look for it on the call stack while sending
 	 */
 	private boolean colorSet = false;
-	private final Optional<Color> stackTraceColor = colorFromCallstack();
+	private Class<?> origin;
 	
 	@Override
 	public AbstractDiscordOutput title(String title, String url) {
@@ -75,6 +91,12 @@ public abstract class AbstractDiscordOutput<RestObject> implements ChrislieOutpu
 		return this;
 	}
 	
+	@Override
+	public AbstractDiscordOutput origin(ChrislieListener listener) {
+		origin = listener.getClass();
+		return this;
+	}
+	
 	@Override
 	public AbstractDiscordOutput author(String name) {
 		authorName = name;
@@ -139,8 +161,10 @@ public abstract class AbstractDiscordOutput<RestObject> implements ChrislieOutpu
 		if (!embedBuilder.isEmpty()) {
 			
 			// jda considers embed non-empty if color has been set
-			if (!colorSet)
-				stackTraceColor.ifPresent(embedBuilder::setColor);
+			if (!colorSet) {
+				var color = origin != null ? LISTENER_COLORS.get(origin) : colorFromCallstack();
+				color.ifPresent(embedBuilder::setColor);
+			}
 			
 			mb.setEmbed(embedBuilder.build());
 		}
@@ -155,27 +179,12 @@ public abstract class AbstractDiscordOutput<RestObject> implements ChrislieOutpu
 		return MarkdownSanitizer.escape(s);
 	}
 	
-	// highly illegal method of creating command dependant colors (please don't tell anyone)
+	// still somewhat illegal method of creating command dependant colors, only used if output doesn't know its listener
 	private static Optional<Color> colorFromCallstack() {
-		var st = Thread.currentThread().getStackTrace();
-		
-		// now we walk up the stacktrace until we find something that implements ChrislieListener interface
-		try {
-			for (var e : st) {
-				var clazz = Class.forName(e.getClassName());
-				while (clazz != null) {
-					
-					// ChrislieListener is of part of invocation, so we need to exclude it
-					if (clazz != ChrislieListener.class && ChrislieListener.class.isAssignableFrom(clazz))
-						return Optional.of(C.hashColor(clazz.getSimpleName().getBytes(StandardCharsets.UTF_8)));
-					
-					// walk up to outer class
-					clazz = clazz.getEnclosingClass();
-				}
-			}
-		} catch (ClassNotFoundException e) {
-			log.warn("you won't believe it but we can't even find the class that called us", e);
-		}
-		return Optional.empty();
+		return STACK_WALKER.walk(frames -> frames
+				.limit(MAX_STACK_DEPTH)
+				.map(frame -> LISTENER_COLORS.get(frame.getDeclaringClass()))
+				.flatMap(Optional::stream)
+				.findFirst());
 	}
 }
@@ -2,6 +2,7 @@ package chrisliebaer.chrisliebot.abstraction.discord;
 
 import chrisliebaer.chrisliebot.Chrisliebot;
 import chrisliebaer.chrisliebot.abstraction.ServiceBootstrap;
+import chrisliebaer.chrisliebot.util.BatchedWriter;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.entities.Activity;
 import net.dv8tion.jda.api.hooks.AnnotatedEventManager;
@@ -13,6 +14,7 @@ public class DiscordBootstrap implements ServiceBootstrap {
 	
 	private String token;
 	private boolean updateSlashCommands;
+	private BatchedWriter.Config traceWriter = new BatchedWriter.Config();
 	
 	@Override
 	public DiscordService service(Chrisliebot bot, String identifier) throws LoginException {
@@ -20,6 +22,6 @@ public class DiscordBootstrap implements ServiceBootstrap {
 				.setEventManager(new AnnotatedEventManager())
 				.setActivity(Activity.playing("mit dir"))
 				.build();
-		return new DiscordService(bot, jda, identifier, updateSlashCommands);
+		return new DiscordService(bot, jda, identifier, updateSlashCommands, traceWriter);
 	}
 }
@@ -9,7 +9,13 @@ import chrisliebaer.chrisliebot.command.ChrislieListener;
 import chrisliebaer.chrisliebot.config.AliasSet;
 import chrisliebaer.chrisliebot.config.ContextResolver;
 import chrisliebaer.chrisliebot.config.flex.FlexConf;
-import chrisliebaer.chrisliebot.config.scope.Selector;
+import chrisliebaer.chrisliebot.util.BatchedWriter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
@@ -20,30 +26,49 @@ import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.TextChannel;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.ShutdownEvent;
+import net.dv8tion.jda.api.events.channel.text.update.TextChannelUpdateNSFWEvent;
 import net.dv8tion.jda.api.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.guild.update.GuildUpdateOwnerEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleRemoveEvent;
+import net.dv8tion.jda.api.events.guild.member.update.GuildMemberUpdateNicknameEvent;
+import net.dv8tion.jda.api.events.guild.override.GenericPermissionOverrideEvent;
 import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.events.role.update.RoleUpdatePermissionsEvent;
+import net.dv8tion.jda.api.events.user.update.UserUpdateNameEvent;
 import net.dv8tion.jda.api.exceptions.ErrorResponseException;
 import net.dv8tion.jda.api.hooks.SubscribeEvent;
-import net.dv8tion.jda.api.interactions.commands.Command;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.CommandData;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
 import org.apache.commons.lang.StringUtils;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 @Slf4j
 public class DiscordService implements ChrislieService {
@@ -51,26 +76,53 @@ public class DiscordService implements ChrislieService {
 	public static final String PREFIX_GUILD_CHANNEL = "G:";
 	public static final String PREFIX_PRIVATE_CHANNEL = "P:";
 	public static final String SLASH_COMMAND_ARG_NAME = "args";
+	private static final String SLASH_COMMAND_ARG_DESCRIPTION = "Argumente für diesen befehl.";
+	
+	// changes whenever the structure of pushed commands changes, so every guild is updated again
+	private static final String COMMAND_FORMAT = "1:" + SLASH_COMMAND_ARG_NAME + ":" + SLASH_COMMAND_ARG_DESCRIPTION;
 	
 	@Getter private Chrisliebot bot;
 	@Getter private JDA jda;
 	@Getter private String identifier;
 	private boolean updateSlashCommands;
 	
-	@Setter private Consumer<ChrislieMessage> sink;
+	@Setter private volatile Consumer<ChrislieMessage> sink;
+	
+	private volatile ContextResolver ctxResolver;
 	
-	private ContextResolver ctxResolver;
+	@Getter private final PermissionCache permissionCache = new PermissionCache();
 	
-	// keeps track of which guilds we have already registered our commands
-	private final Set<Long> registeredGuilds = new HashSet<>();
+	// hash of the command set that was last pushed to each guild, persisted so a restart doesn't push every guild again
+	private final Map<Long, String> pushedCommands = new ConcurrentHashMap<>();
+	private final Set<Long> pushingCommands = ConcurrentHashMap.newKeySet();
+	private boolean pushedCommandsLoaded; // only accessed by command sync thread
+	
+	// commands are computed and pushed on a separate thread, so the shared timer and event threads are never blocked
+	private final ExecutorService commandSync;
 	private ScheduledFuture<?> commandUpdater;
 	
+	// message traces are written in the background, since sent callbacks run on the callback pool of jda
+	private final BatchedWriter<TraceRecord> traceWriter;
+	
+	// recently sent messages are the ones that usually get explained, so their traces are kept in memory
+	private final Cache<TraceKey, TraceMessageSource> traceCache = CacheBuilder.newBuilder()
+			.maximumSize(10000)
+			.expireAfterWrite(1, TimeUnit.HOURS)
+			.recordStats()
+			.build();
+	
 	@SuppressWarnings("ThisEscapedInObjectConstruction")
-	public DiscordService(Chrisliebot bot, JDA jda, String identifier, boolean updateSlashCommands) {
+	public DiscordService(Chrisliebot bot, JDA jda, String identifier, boolean updateSlashCommands, BatchedWriter.Config traceWriter) {
 		this.bot = bot;
 		this.jda = jda;
 		this.identifier = identifier;
 		this.updateSlashCommands = updateSlashCommands;
+		commandSync = Executors.newSingleThreadExecutor(r -> {
+			var t = new Thread(r, "DiscordCommandSync-" + identifier);
+			t.setDaemon(true);
+			return t;
+		});
+		this.traceWriter = new BatchedWriter<>(bot.sharedResources().dataSource(), "TraceWriter-" + identifier, traceWriter, DiscordService::writeTraces);
 		
 		jda.addEventListener(this);
 	}
@@ -128,15 +180,26 @@ public class DiscordService implements ChrislieService {
 	}
 	
 	@Override
-	public void announceResolver(@NonNull ContextResolver ctxResolver) {
+	public synchronized void announceResolver(@NonNull ContextResolver ctxResolver) {
 		this.ctxResolver = ctxResolver;
-		commandUpdater = bot.sharedResources().timer().scheduleWithFixedDelay(() -> {
-			try {
-				refreshGuildCommands();
-			} catch (Throwable e) {
-				log.error("error while updating guild commands", e); // TODO handle permission missing
-			}
-		}, 0, 2, TimeUnit.DAYS);
+		
+		// a reloaded config might come with different commands, which will be picked up by comparing hashes
+		if (commandUpdater != null)
+			commandUpdater.cancel(false);
+		
+		commandUpdater = bot.sharedResources().timer().scheduleWithFixedDelay(this::scheduleCommandSync, 0, 2, TimeUnit.DAYS);
+	}
+	
+	private void scheduleCommandSync() {
+		try {
+			commandSync.execute(() -> {
+				try {
+					refreshGuildCommands();
+				} catch (Throwable e) {
+					log.error("error while updating guild commands", e);
+				}
+			});
+		} catch (RejectedExecutionException ignore) {} // service is shutting down
 	}
 	
 	private void refreshGuildCommands() {
@@ -147,45 +210,49 @@ public class DiscordService implements ChrislieService {
 		if (!updateSlashCommands)
 			return;
 		
-		try {
+		loadPushedCommands();
+		
+		// only guilds whose command set changed are pushed, jda takes care of rate limits while the pushes run concurrently
+		for (var guild : jda.getGuilds()) {
+			var commands = guildCommands(guild);
+			var hash = hashCommands(commands);
+			var id = guild.getIdLong();
+			
+			if (hash.equals(pushedCommands.get(id)))
+				continue;
+			
+			// a pending push will be followed up by the next refresh, if the commands changed in the meantime
+			if (!pushingCommands.add(id))
+				continue;
 			
-			// there is no easy way to check which guilds need to be updated with new commands, so we simply update all
-			synchronized (registeredGuilds) {
-				var guilds = new ArrayList<>(jda.getGuilds()); // returned list is immutable
-				guilds.removeIf(guild -> registeredGuilds.contains(guild.getIdLong()));
+			guild.updateCommands().addCommands(commands).submit().whenComplete((v, t) -> {
+				pushingCommands.remove(id);
 				
-				for (var guild : guilds) {
+				var cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+				if (cause == null) {
+					log.trace("pushed {} commands to {}", commands.size(), guild);
+					pushedCommands.put(id, hash);
+					
 					try {
-						registerCommandsOnGuild(guild);
-						registeredGuilds.add(guild.getIdLong());
-					}  catch (ExecutionException e) {
-						if (e.getCause() instanceof ErrorResponseException) {
-							var ere = (ErrorResponseException)e.getCause();
-							if (ere.getErrorCode() == 50001) {
-								log.debug("missing permission to modify slash commands on guild {}", guild);
-								registeredGuilds.add(guild.getIdLong());
-							}
-						} else {
-							log.warn("failed to update commands on guild {}", guild, e);
-						}
-					}
+						commandSync.execute(() -> persistPushedCommands(id, hash));
+					} catch (RejectedExecutionException ignore) {}
+				} else if (cause instanceof ErrorResponseException && ((ErrorResponseException) cause).getErrorCode() == 50001) {
+					// not persisted, so we try again after a restart
+					log.debug("missing permission to modify slash commands on guild {}", guild);
+					pushedCommands.put(id, hash);
+				} else {
+					log.warn("failed to update commands on guild {}", guild, cause);
 				}
-			}
-		} catch (InterruptedException ignore) {
-			Thread.currentThread().interrupt();
+			});
 		}
 	}
 	
-	private void registerCommandsOnGuild(Guild guild) throws ExecutionException, InterruptedException {
-		
-		var existing = guild.retrieveCommands().submit().get().stream().map(Command::getName).collect(Collectors.toSet());
-		
-		var update = guild.updateCommands();
+	private List<CommandData> guildCommands(Guild guild) {
 		var chrislieGuild = new DiscordGuild(this, guild);
 		
-		var ctx = ctxResolver.resolve(Selector::check, chrislieGuild);
+		var ctx = ctxResolver.resolve(chrislieGuild);
 		var refs = ctx.listeners().values();
-
+		
 		// build list of command data for discord api from context refs
 		var commandDatas = new ArrayList<CommandData>();
 		for (var ref : refs) {
@@ -220,29 +287,138 @@ public class DiscordService implements ChrislieService {
 			}
 			
 			commandDatas.add(new CommandData(alias, StringUtils.abbreviate(help.get(), 100))
-					.addOption(new OptionData(OptionType.STRING, SLASH_COMMAND_ARG_NAME, "Argumente für diesen befehl.")));
+					.addOption(new OptionData(OptionType.STRING, SLASH_COMMAND_ARG_NAME, SLASH_COMMAND_ARG_DESCRIPTION)));
 		}
+		return commandDatas;
+	}
+	
+	// order of commands is irrelevant, all commands share the same option, which is part of the hash via the format version
+	private static String hashCommands(List<CommandData> commands) {
+		var sorted = new ArrayList<>(commands);
+		sorted.sort(Comparator.comparing(CommandData::getName));
 		
-		// check if online and local commands match
-		for (var data : commandDatas) {
-			existing.remove(data.getName());
+		var hasher = Hashing.sha256().newHasher();
+		hasher.putString(COMMAND_FORMAT, StandardCharsets.UTF_8);
+		for (var command : sorted) {
+			hasher.putByte((byte) 0).putString(command.getName(), StandardCharsets.UTF_8);
+			hasher.putByte((byte) 0).putString(command.getDescription(), StandardCharsets.UTF_8);
 		}
+		return hasher.hash().toString();
+	}
+	
+	private void loadPushedCommands() {
+		if (pushedCommandsLoaded)
+			return;
 		
-		if (!existing.isEmpty()) {
-			update.addCommands(commandDatas).submit().get();
-			log.trace("added {} new ({} total) commands to {}", existing.size(), commandDatas.size(), chrislieGuild);
-		} else {
-			log.trace("guild {} is already in sync", guild);
+		var sql = "SELECT `guildId`, `hash` FROM `discord_command_sync` WHERE `service` = ?";
+		try (var conn = bot.sharedResources().dataSource().getConnection(); var stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, identifier);
+			try (var rs = stmt.executeQuery()) {
+				while (rs.next())
+					pushedCommands.putIfAbsent(rs.getLong("guildId"), rs.getString("hash"));
+			}
+		} catch (SQLException e) {
+			log.error("failed to load pushed commands, all guilds will be updated", e);
+		}
+		pushedCommandsLoaded = true;
+	}
+	
+	private void persistPushedCommands(long guildId, String hash) {
+		var sql = "INSERT INTO `discord_command_sync` (`service`, `guildId`, `hash`) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE `hash` = VALUES(`hash`)";
+		try (var conn = bot.sharedResources().dataSource().getConnection(); var stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, identifier);
+			stmt.setLong(2, guildId);
+			stmt.setString(3, hash);
+			stmt.executeUpdate();
+		} catch (SQLException e) {
+			log.error("failed to persist pushed commands of guild {}", guildId, e);
 		}
 	}
 	
 	@SubscribeEvent
 	public void onGuildJoin(GuildJoinEvent ev) {
-		refreshGuildCommands();
+		scheduleCommandSync();
+	}
+	
+	@SubscribeEvent
+	public void onGuildLeave(GuildLeaveEvent ev) {
+		permissionCache.invalidate(ev.getGuild());
+		invalidate(resolver -> resolver.invalidate(new DiscordGuild(this, ev.getGuild())));
+	}
+	
+	@SubscribeEvent
+	public void onMemberJoin(GuildMemberJoinEvent ev) {
+		invalidate(resolver -> resolver.invalidate(new DiscordUser(this, ev.getUser())));
+	}
+	
+	// display names are matched by selectors
+	@SubscribeEvent
+	public void onMemberNicknameUpdate(GuildMemberUpdateNicknameEvent ev) {
+		invalidate(resolver -> resolver.invalidate(new DiscordUser(this, ev.getUser())));
+	}
+	
+	@SubscribeEvent
+	public void onUserNameUpdate(UserUpdateNameEvent ev) {
+		invalidate(resolver -> resolver.invalidate(new DiscordUser(this, ev.getUser())));
+	}
+	
+	@SubscribeEvent
+	public void onGuildOwnerUpdate(GuildUpdateOwnerEvent ev) {
+		// owners implicitly have all permissions
+		permissionCache.invalidate(ev.getGuild());
+		invalidate(resolver -> resolver.invalidate(new DiscordGuild(this, ev.getGuild())));
+	}
+	
+	@SubscribeEvent
+	public void onMemberRemove(GuildMemberRemoveEvent ev) {
+		permissionCache.invalidate(ev.getGuild(), ev.getUser());
+		invalidate(resolver -> resolver.invalidate(new DiscordUser(this, ev.getUser())));
+	}
+	
+	@SubscribeEvent
+	public void onMemberRoleAdd(GuildMemberRoleAddEvent ev) {
+		permissionCache.invalidate(ev.getGuild(), ev.getUser());
+		invalidate(resolver -> resolver.invalidate(new DiscordUser(this, ev.getUser())));
+	}
+	
+	@SubscribeEvent
+	public void onMemberRoleRemove(GuildMemberRoleRemoveEvent ev) {
+		permissionCache.invalidate(ev.getGuild(), ev.getUser());
+		invalidate(resolver -> resolver.invalidate(new DiscordUser(this, ev.getUser())));
+	}
+	
+	@SubscribeEvent
+	public void onRolePermissionUpdate(RoleUpdatePermissionsEvent ev) {
+		permissionCache.invalidate(ev.getGuild());
+		invalidate(resolver -> resolver.invalidate(new DiscordGuild(this, ev.getGuild())));
+	}
+	
+	@SubscribeEvent
+	public void onRoleDelete(RoleDeleteEvent ev) {
+		permissionCache.invalidate(ev.getGuild());
+		invalidate(resolver -> resolver.invalidate(new DiscordGuild(this, ev.getGuild())));
+	}
+	
+	@SubscribeEvent
+	public void onPermissionOverride(GenericPermissionOverrideEvent ev) {
+		invalidate(resolver -> resolver.invalidate(new DiscordGuild(this, ev.getGuild())));
+	}
+	
+	@SubscribeEvent
+	public void onChannelNsfwUpdate(TextChannelUpdateNSFWEvent ev) {
+		invalidate(resolver -> resolver.invalidate(new DiscordGuildChannel(this, ev.getChannel())));
+	}
+	
+	// drops cached contexts that might be affected by changes in guild, roles or permissions
+	private void invalidate(Consumer<ContextResolver> fn) {
+		var resolver = ctxResolver;
+		if (resolver != null)
+			fn.accept(resolver);
 	}
 	
 	@SubscribeEvent
 	public void onSlashCommand(SlashCommandEvent ev) {
+		var sink = this.sink;
 		if (sink == null)
 			return;
 		
@@ -273,55 +449,97 @@ public class DiscordService implements ChrislieService {
 		jda.addEventListener(helper);
 		if (commandUpdater != null)
 			commandUpdater.cancel(true);
+		commandSync.shutdownNow();
 		jda.removeEventListener(this);
 		jda.shutdown();
 		
-		// wait for shutdown event to occur
+		// wait for shutdown event to occur, pending traces can only be written once no more messages are sent
 		try {
 			helper.latch.await();
+			traceWriter.close();
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			throw new ServiceException("got interrupted while waiting for jda shutdown", e);
 		}
 	}
 	
+	/**
+	 * Links the given result message to the message that caused it. The link is written asynchronously, but is visible
+	 * to {@link #fetchMessageTrace(Message)} right away.
+	 */
 	public void traceMessage(@NonNull Message source, @NonNull Message result) {
-		var sql = """
+		var user = source.getAuthor();
+		var trace = new TraceRecord(
+				result.getChannel().getIdLong(),
+				result.getIdLong(),
+				source.isFromGuild() ? source.getGuild().getIdLong() : null,
+				source.getChannel().getIdLong(),
+				source.getIdLong(),
+				user.getName(),
+				Integer.parseInt(user.getDiscriminator()),
+				user.getIdLong(),
+				source.getContentRaw());
+		
+		// cached right away, so explaining a message doesn't depend on the writer having caught up
+		if (traceWriter.submit(trace))
+			traceCache.put(new TraceKey(trace.channelId, trace.messageId), trace.source());
+	}
+	
+	/**
+	 * @return The writer of message traces, exposes the number of dropped and pending traces.
+	 */
+	public BatchedWriter<?> traceWriter() {
+		return traceWriter;
+	}
+	
+	// writes the whole batch with a single multi-row insert
+	private static void writeTraces(Connection conn, List<TraceRecord> batch) throws SQLException {
+		var sql = new StringBuilder("""
 					INSERT INTO `discord_message_trace`
 					(
 						`channelId`, `messageId`,
 						`sourceGuildId`, `sourceChannelId`, `sourceMessageId`, `sourceUserNickname`, `sourceUserDiscriminator`, `sourceUserId`,
 						`sourceContent`
-					) VALUES (
-						?, ?, ?, ?, ?, ?, ?, ?, ?
-					)
-				""";
+					) VALUES
+				""");
+		for (int i = 0; i < batch.size(); i++)
+			sql.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, ?, ?, ?, ?)");
 		
-		try (var conn = bot.sharedResources().dataSource().getConnection(); var stmt = conn.prepareStatement(sql)) {
-			stmt.setLong(1, result.getChannel().getIdLong());
-			stmt.setLong(2, result.getIdLong());
-			
-			if (source.isFromGuild())
-				stmt.setLong(3, source.getGuild().getIdLong());
-			else
-				stmt.setNull(3, Types.BIGINT);
-			
-			stmt.setLong(4, source.getChannel().getIdLong());
-			stmt.setLong(5, source.getIdLong());
-			
-			var user = source.getAuthor();
-			stmt.setString(6, user.getName());
-			stmt.setInt(7, Integer.parseInt(user.getDiscriminator()));
-			stmt.setLong(8, user.getIdLong());
-			stmt.setString(9, source.getContentRaw());
-			
+		try (var stmt = conn.prepareStatement(sql.toString())) {
+			int i = 0;
+			for (var trace : batch) {
+				stmt.setLong(++i, trace.channelId);
+				stmt.setLong(++i, trace.messageId);
+				
+				if (trace.sourceGuildId != null)
+					stmt.setLong(++i, trace.sourceGuildId);
+				else
+					stmt.setNull(++i, Types.BIGINT);
+				
+				stmt.setLong(++i, trace.sourceChannelId);
+				stmt.setLong(++i, trace.sourceMessageId);
+				stmt.setString(++i, trace.sourceUserNickname);
+				stmt.setInt(++i, trace.sourceUserDiscriminator);
+				stmt.setLong(++i, trace.sourceUserId);
+				stmt.setString(++i, trace.sourceContent);
+			}
 			stmt.executeUpdate();
-		} catch (SQLException e) {
-			log.error("error inserting message trace to database", e);
 		}
 	}
 	
+	/**
+	 * @return Hit and miss counts of the trace cache.
+	 */
+	public CacheStats traceCacheStats() {
+		return traceCache.stats();
+	}
+	
 	public Optional<TraceMessageSource> fetchMessageTrace(@NonNull Message msg) {
+		var key = new TraceKey(msg.getChannel().getIdLong(), msg.getIdLong());
+		var cached = traceCache.getIfPresent(key);
+		if (cached != null)
+			return Optional.of(cached);
+		
 		var sql = """
 					SELECT `sourceGuildId`, `sourceChannelId`, `sourceMessageId`, `sourceUserNickname`, `sourceUserDiscriminator`, `sourceUserId`, `sourceContent`
 					FROM discord_message_trace
@@ -334,8 +552,11 @@ public class DiscordService implements ChrislieService {
 			stmt.setLong(2, msg.getIdLong());
 			
 			try (var rs = stmt.executeQuery()) {
-				if (rs.next())
-					return Optional.of(TraceMessageSource.fromResultSet(rs));
+				if (rs.next()) {
+					var trace = TraceMessageSource.fromResultSet(rs);
+					traceCache.put(key, trace);
+					return Optional.of(trace);
+				}
 			}
 		} catch (SQLException e) {
 			log.error("error fetching trace from database", e);
@@ -346,4 +567,31 @@ public class DiscordService implements ChrislieService {
 	public static boolean isDiscord(ServiceAttached service) {
 		return service.service() instanceof DiscordService;
 	}
+	
+	@AllArgsConstructor
+	private static final class TraceRecord {
+		
+		private final long channelId;
+		private final long messageId;
+		private final Long sourceGuildId; // null for private messages
+		private final long sourceChannelId;
+		private final long sourceMessageId;
+		private final String sourceUserNickname;
+		private final int sourceUserDiscriminator;
+		private final long sourceUserId;
+		private final String sourceContent;
+		
+		private TraceMessageSource source() {
+			return TraceMessageSource.of(sourceGuildId == null ? 0 : sourceGuildId, sourceChannelId, sourceMessageId,
+					sourceUserNickname, sourceUserDiscriminator, sourceUserId, sourceContent);
+		}
+	}
+	
+	@EqualsAndHashCode
+	@AllArgsConstructor
+	private static final class TraceKey {
+		
+		private final long channel;
+		private final long message;
+	}
 }
@@ -0,0 +1,85 @@
+package chrisliebaer.chrisliebot.abstraction.discord;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.User;
+
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the guild wide permissions of members as raw bitmask. Computing permissions requires a member lookup and
+ * walking all roles of that member, which is wasteful since permissions rarely change. The {@link DiscordService}
+ * drops affected entries whenever roles, members or guilds change.
+ */
+public class PermissionCache {
+	
+	// stands in for the user id when caching the permissions of the public role
+	private static final long PUBLIC_ROLE = 0;
+	
+	// entries expire eventually, in case we missed an event
+	private final Cache<Key, Long> cache = CacheBuilder.newBuilder()
+			.maximumSize(10000)
+			.expireAfterWrite(10, TimeUnit.MINUTES)
+			.build();
+	
+	/**
+	 * @param guild The guild to look up.
+	 * @param user  The user to look up.
+	 * @return The effective guild wide permissions of the given user, or an empty optional if the user is not a member
+	 * of the given guild.
+	 */
+	public OptionalLong member(@NonNull Guild guild, @NonNull User user) {
+		var key = new Key(guild.getIdLong(), user.getIdLong());
+		var cached = cache.getIfPresent(key);
+		if (cached != null)
+			return OptionalLong.of(cached);
+		
+		var member = guild.getMember(user);
+		if (member == null)
+			return OptionalLong.empty(); // not cached, since member might just not be loaded yet
+		
+		long raw = Permission.getRaw(member.getPermissions());
+		cache.put(key, raw);
+		return OptionalLong.of(raw);
+	}
+	
+	/**
+	 * @param guild The guild to look up.
+	 * @return The permissions that every member of the given guild has.
+	 */
+	public long everyone(@NonNull Guild guild) {
+		var key = new Key(guild.getIdLong(), PUBLIC_ROLE);
+		var cached = cache.getIfPresent(key);
+		if (cached != null)
+			return cached;
+		
+		long raw = guild.getPublicRole().getPermissionsRaw();
+		if ((raw & Permission.ADMINISTRATOR.getRawValue()) != 0)
+			raw = Permission.ALL_PERMISSIONS;
+		cache.put(key, raw);
+		return raw;
+	}
+	
+	public void invalidate(@NonNull Guild guild) {
+		var id = guild.getIdLong();
+		cache.asMap().keySet().removeIf(key -> key.guild == id);
+	}
+	
+	public void invalidate(@NonNull Guild guild, @NonNull User user) {
+		cache.invalidate(new Key(guild.getIdLong(), user.getIdLong()));
+	}
+	
+	@EqualsAndHashCode
+	@AllArgsConstructor
+	private static final class Key {
+		
+		private final long guild;
+		private final long user;
+	}
+}
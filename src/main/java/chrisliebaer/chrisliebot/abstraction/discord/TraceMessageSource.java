@@ -38,6 +38,16 @@ public final class TraceMessageSource {
 		content = rs.getString("sourceContent");
 	}
 	
+	private TraceMessageSource(long guildId, long channelId, long messageId, String nickname, int discriminator, long userId, String content) {
+		this.guildId = guildId;
+		this.channelId = channelId;
+		this.messageId = messageId;
+		this.nickname = nickname;
+		this.discriminator = discriminator;
+		this.userId = userId;
+		this.content = content;
+	}
+	
 	public Optional<User> user(JDA jda) {
 		return Optional.ofNullable(jda.getUserById(userId));
 	}
@@ -53,4 +63,9 @@ public final class TraceMessageSource {
 	public static TraceMessageSource fromResultSet(ResultSet rs) throws SQLException {
 		return new TraceMessageSource(rs);
 	}
+	
+	// guild id is 0 for private messages, same as when reading a null value from the database
+	static TraceMessageSource of(long guildId, long channelId, long messageId, String nickname, int discriminator, long userId, String content) {
+		return new TraceMessageSource(guildId, channelId, messageId, nickname, discriminator, userId, content);
+	}
 }
@@ -2,8 +2,10 @@ package chrisliebaer.chrisliebot.abstraction.irc;
 
 import chrisliebaer.chrisliebot.Chrisliebot;
 import chrisliebaer.chrisliebot.abstraction.ServiceBootstrap;
+import chrisliebaer.chrisliebot.util.BatchedWriter;
 import chrisliebaer.chrisliebot.util.ClientLogic;
 import chrisliebaer.chrisliebot.util.IrcToSqlLogger;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import lombok.extern.slf4j.Slf4j;
@@ -15,8 +17,11 @@ import org.kitteh.irc.client.library.event.capabilities.CapabilitiesAcknowledged
 import org.kitteh.irc.client.library.event.capabilities.CapabilitiesRejectedEvent;
 import org.kitteh.irc.client.library.event.capabilities.CapabilitiesSupportedListEvent;
 import org.kitteh.irc.client.library.feature.CapabilityManager;
+import org.kitteh.irc.client.library.feature.auth.SaslPlain;
 import org.kitteh.irc.client.library.feature.sending.SingleDelaySender;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -27,6 +32,7 @@ import java.util.regex.Pattern;
 public class IrcBootstrap implements ServiceBootstrap {
 	
 	private boolean chatlog; // enable logging of all messages to database
+	private BatchedWriter.Config chatlogWriter = new BatchedWriter.Config();
 	
 	private String host;
 	private Integer port;
@@ -35,24 +41,79 @@ public class IrcBootstrap implements ServiceBootstrap {
 	private String serverPassword;
 	private boolean secure; // enables tls
 	private Integer flooding; // delay between messenges in ms
+	private IrcSendScheduler.Config scheduler; // replaces flooding with priority aware pacing if enabled, can't be combined
 	private String realname;
 	
+	// opens one additional connection per nickname, channels are distributed across all connections
+	private List<String> shardNicknames;
+	
+	// authenticates every connection with this account, so all connections share the same permissions
+	private String saslAccount;
+	private String saslPassword;
+	
 	private Map<String, List<String>> guilds;
 	
 	private Set<String> ignore;
 	
 	@Override
 	public IrcService service(Chrisliebot bot, String identifier) throws NullPointerException {
+		// both would pace the same connection, but the library queue doesn't know about the scheduler and vice versa
+		boolean scheduled = scheduler != null && scheduler.enabled();
+		Preconditions.checkArgument(flooding == null || !scheduled, "flooding and scheduler can't be enabled at the same time");
+		
+		List<String> nicknames = new ArrayList<>();
+		nicknames.add(nickname);
+		if (shardNicknames != null)
+			nicknames.addAll(shardNicknames);
+		
+		// log chat messages in database, a single logger is shared by all connections
+		IrcToSqlLogger chatLogger = null;
+		if (chatlog)
+			chatLogger = new IrcToSqlLogger(bot.sharedResources().dataSource(), identifier, chatlogWriter);
+		
+		List<Client> clients = new ArrayList<>(nicknames.size());
+		Map<Client, IrcSendScheduler> schedulers = new HashMap<>();
+		for (int i = 0; i < nicknames.size(); i++) {
+			var connectionIdentifier = i == 0 ? identifier : identifier + "#" + i;
+			
+			// every connection has its own flood budget
+			var sendScheduler = scheduled ? new IrcSendScheduler(scheduler, connectionIdentifier) : null;
+			var client = client(connectionIdentifier, nicknames.get(i), chatLogger, sendScheduler);
+			clients.add(client);
+			if (sendScheduler != null)
+				schedulers.put(client, sendScheduler);
+		}
+		
+		var service = new IrcService(clients, identifier, buildGuildMap(guilds), ignore, schedulers);
+		if (chatLogger != null)
+			service.chatLogger(chatLogger);
 		
+		// service has to listen before connecting, otherwise invites and joins during connect would be lost
+		for (var client : clients) {
+			client.getEventManager().registerEventListener(service);
+			client.connect();
+		}
+		return service;
+	}
+	
+	private Client client(String identifier, String nickname, IrcToSqlLogger chatLogger, IrcSendScheduler sendScheduler) {
 		var builder = Client.builder();
 		builder.listeners().exception(IrcBootstrap::exceptionLogger);
 		
-		configureConnection(builder);
+		configureConnection(builder, nickname);
 		
-		// protocol level logging
-		IrcLogger.attach(identifier, builder);
+		// protocol level logging, protocol lines also count against the flood budget of the scheduler
+		if (sendScheduler == null)
+			IrcLogger.attach(identifier, builder);
+		else
+			IrcLogger.attach(identifier, builder, sendScheduler::charge);
 		
 		Client client = builder.build();
+		if (sendScheduler != null)
+			sendScheduler.start(client);
+		
+		if (saslAccount != null)
+			client.getAuthManager().addProtocol(new SaslPlain(client, saslAccount, saslPassword));
 		
 		// try to enable echo capability so we can react to our own messages
 		client.getEventManager().registerEventListener(new EchoCapHandler());
@@ -60,13 +121,11 @@ public class IrcBootstrap implements ServiceBootstrap {
 		// provide meaningful reaction to some very specific events
 		client.getEventManager().registerEventListener(new ClientLogic());
 		
-		// log chat messages in database
-		if (chatlog)
-			chatLogger(client, bot, identifier);
+		if (chatLogger != null)
+			client.getEventManager().registerEventListener(chatLogger);
 		
-		// connect and pass to service, service should not assume client to be still disconnected, setup is done here
-		client.connect();
-		return new IrcService(client, identifier, buildGuildMap(guilds), ignore);
+		// connection is established once the service is listening
+		return client;
 	}
 	
 	private static Multimap<String, Pattern> buildGuildMap(Map<String, List<String>> guilds) {
@@ -85,7 +144,7 @@ public class IrcBootstrap implements ServiceBootstrap {
 		builder.listeners().output(IrcBootstrap::outLogger);
 	}
 	
-	private void configureConnection(Client.Builder builder) {
+	private void configureConnection(Client.Builder builder, String nickname) {
 		var server = builder.server();
 		
 		server.host(host);
@@ -112,10 +171,6 @@ public class IrcBootstrap implements ServiceBootstrap {
 			builder.realName(realname);
 	}
 	
-	private void chatLogger(Client client, Chrisliebot bot, String identifier) {
-		client.getEventManager().registerEventListener(new IrcToSqlLogger(bot.sharedResources().dataSource(), identifier));
-	}
-	
 	private static void inLogger(String line) {
 		log.trace("<<< {}", line);
 	}
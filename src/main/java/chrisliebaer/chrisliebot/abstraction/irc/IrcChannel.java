@@ -1,6 +1,5 @@
 package chrisliebaer.chrisliebot.abstraction.irc;
 
-import chrisliebaer.chrisliebot.C;
 import chrisliebaer.chrisliebot.abstraction.ChrislieChannel;
 import chrisliebaer.chrisliebot.abstraction.LimiterConfig;
 import com.google.common.base.Objects;
@@ -9,7 +8,6 @@ import org.kitteh.irc.client.library.element.Channel;
 
 import java.util.List;
 import java.util.Optional;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class IrcChannel implements ChrislieChannel {
@@ -63,7 +61,7 @@ public class IrcChannel implements ChrislieChannel {
 	
 	@Override
 	public Optional<IrcUser> user(String identifier) {
-		return service.userByPrefixedIdentifier(identifier, channel.getUsers().stream()).map(user -> new IrcUser(service, user));
+		return service.userByPrefixedIdentifier(identifier, channel).map(user -> new IrcUser(service, user));
 	}
 	
 	@Override
@@ -80,7 +78,7 @@ public class IrcChannel implements ChrislieChannel {
 	
 	@Override
 	public IrcOutput output(LimiterConfig limiterConfig) {
-		return new IrcOutput(this::escapeNicks, s -> limiterConfig.send(channel, s));
+		return new IrcOutput(this::escapeNicks, s -> service.send(channel, limiterConfig, s));
 	}
 	
 	/**
@@ -90,15 +88,6 @@ public class IrcChannel implements ChrislieChannel {
 	 * @return The escaped string.
 	 */
 	public String escapeNicks(String s) {
-		Pattern nickPattern = Pattern.compile(
-				channel.getNicknames().stream().map(Pattern::quote).collect(Collectors.joining("|")),
-				Pattern.CASE_INSENSITIVE);
-		return nickPattern.matcher(s).replaceAll(result -> {
-			var nickname = result.group();
-			if (nickname.length() <= 1)
-				return nickname;
-			
-			return nickname.substring(0, 1) + C.ZERO_WIDTH_NO_BREAK_SPACE + nickname.substring(1);
-		});
+		return service.escapeNicks(channel, s);
 	}
 }
@@ -2,20 +2,19 @@ package chrisliebaer.chrisliebot.abstraction.irc;
 
 import chrisliebaer.chrisliebot.abstraction.ChrislieGuild;
 import lombok.Getter;
-import org.kitteh.irc.client.library.element.Channel;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class IrcGuild implements ChrislieGuild {
 	
 	@Getter private IrcService service;
 	@Getter private String identifier;
 	
-	private List<Channel> channels;
+	private Collection<String> channels; // names of channels, resolved on demand
 	
-	public IrcGuild(IrcService service, String identifier, List<Channel> channels) {
+	public IrcGuild(IrcService service, String identifier, Collection<String> channels) {
 		this.service = service;
 		this.identifier = identifier;
 		this.channels = channels;
@@ -28,8 +27,9 @@ public class IrcGuild implements ChrislieGuild {
 	
 	@Override
 	public Collection<IrcChannel> channels() {
-		return channels.stream()
-				.map(channel -> new IrcChannel(service, channel, this))
-				.collect(Collectors.toList());
+		List<IrcChannel> out = new ArrayList<>(channels.size());
+		for (var name : channels)
+			service.liveChannel(name).ifPresent(channel -> out.add(new IrcChannel(service, channel, this)));
+		return out;
 	}
 }
@@ -6,6 +6,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.kitteh.irc.client.library.Client;
 import org.slf4j.MDC;
 
+import java.util.function.Consumer;
+
 @Slf4j
 @AllArgsConstructor
 public final class IrcLogger {
@@ -13,12 +15,23 @@ public final class IrcLogger {
 	public final String name;
 	
 	public static void attach(@NonNull String name, @NonNull Client.Builder builder) {
+		attach(name, builder, s -> {});
+	}
+	
+	/**
+	 * Same as above, but also passes every outgoing line to the given listener, since the library only supports a
+	 * single output listener.
+	 */
+	public static void attach(@NonNull String name, @NonNull Client.Builder builder, @NonNull Consumer<String> output) {
 		var logger = new IrcLogger(name);
 		
 		builder.listeners()
 				.exception(logger::error)
 				.input(logger::in)
-				.output(logger::out);
+				.output(s -> {
+					logger.out(s);
+					output.accept(s);
+				});
 	}
 	
 	private void error(Throwable t) {
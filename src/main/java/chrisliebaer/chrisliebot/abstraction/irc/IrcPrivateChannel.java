@@ -77,6 +77,6 @@ public class IrcPrivateChannel implements ChrislieChannel {
 	
 	@Override
 	public IrcOutput output(LimiterConfig limiterConfig) {
-		return new IrcOutput(Function.identity(), s -> limiterConfig.send(user.user(), s));
+		return new IrcOutput(Function.identity(), s -> service.send(user.user(), limiterConfig, s));
 	}
 }
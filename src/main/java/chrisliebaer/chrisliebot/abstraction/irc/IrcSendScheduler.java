@@ -0,0 +1,305 @@
+package chrisliebaer.chrisliebot.abstraction.irc;
+
+import chrisliebaer.chrisliebot.abstraction.LimiterConfig;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.element.User;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces outgoing messages with a token bucket and decides which message is sent next. Messages with higher
+ * {@link LimiterConfig.Priority} are always sent first, within the same priority all targets are served in turns, so a
+ * long output to one channel can't hold back every other channel. Lines bypass the queue of the library, which will then
+ * only carry protocol traffic. Since the server counts every line, protocol lines are charged against the same bucket
+ * through {@link #charge(String)}, which has to be installed as output listener of the client.
+ */
+@Slf4j
+public class IrcSendScheduler {
+	
+	// used if we don't know our own hostmask yet, ircd limit host names to 63 characters
+	private static final int MAX_USER_LENGTH = 10;
+	private static final int MAX_HOST_LENGTH = 63;
+	
+	// irc lines are limited to 512 bytes including the trailing line break
+	private static final int MAX_LINE_LENGTH = 510;
+	
+	// lines that are sent by us but never reach the output listener, e.g. during a disconnect, are forgotten eventually
+	private static final int MAX_UNCONFIRMED = 64;
+	
+	private final Config cfg;
+	private final Thread thread;
+	private volatile Client client;
+	
+	// guarded by this instance, each priority maps targets to their pending lines, iteration order is serving order
+	private final Map<LimiterConfig.Priority, LinkedHashMap<String, ArrayDeque<Line>>> queues = new EnumMap<>(LimiterConfig.Priority.class);
+	private final Map<LimiterConfig.Priority, Stats> stats = new EnumMap<>(LimiterConfig.Priority.class);
+	private final Multiset<String> unconfirmed = HashMultiset.create(); // sent lines that have already been charged
+	private long protocolLines;
+	private double tokens;
+	private long lastRefill;
+	private boolean running = true;
+	
+	public IrcSendScheduler(@NonNull Config cfg, String identifier) {
+		this.cfg = cfg;
+		
+		for (var priority : LimiterConfig.Priority.values()) {
+			queues.put(priority, new LinkedHashMap<>());
+			stats.put(priority, new Stats(priority));
+		}
+		tokens = cfg.burst;
+		lastRefill = System.nanoTime();
+		
+		thread = new Thread(this::run, "IrcSender-" + identifier);
+		thread.setDaemon(true);
+	}
+	
+	/**
+	 * Starts sending queued lines to the given client. The client has to be built with {@link #charge(String)} as
+	 * output listener.
+	 */
+	public void start(@NonNull Client client) {
+		this.client = client;
+		thread.start();
+	}
+	
+	/**
+	 * Charges the given line against the token bucket, unless it was sent by this scheduler and has already been paid
+	 * for. The line has already been written, so the bucket might go negative, which delays the following messages.
+	 *
+	 * @param line A line that has been sent by the client.
+	 */
+	public synchronized void charge(@NonNull String line) {
+		if (unconfirmed.remove(line))
+			return;
+		
+		refill();
+		tokens--;
+		protocolLines++;
+	}
+	
+	/**
+	 * @return The number of lines that have been sent by the library instead of this scheduler.
+	 */
+	public synchronized long protocolLines() {
+		return protocolLines;
+	}
+	
+	/**
+	 * @param target The channel or nickname the message will be sent to.
+	 * @return The number of bytes that can be used for a single message to the given target.
+	 */
+	public int lineLimit(String target) {
+		var self = client.getUser()
+				.map(User::getName)
+				.orElseGet(() -> client.getNick() + "!" + "x".repeat(MAX_USER_LENGTH) + "@" + "x".repeat(MAX_HOST_LENGTH));
+		var overhead = ":" + self + " PRIVMSG " + target + " :";
+		return MAX_LINE_LENGTH - overhead.getBytes(StandardCharsets.UTF_8).length;
+	}
+	
+	/**
+	 * Queues the given message for the given target. The message is split according to the given limiter config.
+	 *
+	 * @param target        The channel or nickname to send the message to.
+	 * @param limiterConfig The limiter config that is used to split the message and provides its priority.
+	 * @param message       The message to send.
+	 */
+	public void send(@NonNull String target, @NonNull LimiterConfig limiterConfig, @NonNull String message) {
+		var lines = limiterConfig.lines(message, lineLimit(target));
+		var priority = limiterConfig.priority();
+		long now = System.nanoTime();
+		
+		synchronized (this) {
+			if (!running)
+				return;
+			
+			// targets are case insensitive, but we need to keep the original name for sending
+			var queue = queues.get(priority).computeIfAbsent(target.toLowerCase(Locale.ROOT), k -> new ArrayDeque<>());
+			for (var line : lines)
+				queue.add(new Line(target, line, now));
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Stops the sender thread. Pending lines are dropped.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			running = false;
+			queues.values().forEach(Map::clear);
+			notifyAll();
+		}
+		thread.interrupt();
+	}
+	
+	/**
+	 * @return A snapshot of the queue statistics of each priority.
+	 */
+	public synchronized List<Stats> stats() {
+		List<Stats> out = new ArrayList<>(stats.size());
+		for (var e : stats.entrySet()) {
+			var copy = e.getValue().copy();
+			copy.queued = queues.get(e.getKey()).values().stream().mapToInt(ArrayDeque::size).sum();
+			out.add(copy);
+		}
+		return out;
+	}
+	
+	private void run() {
+		try {
+			while (true) {
+				Line line = take();
+				if (line == null)
+					return;
+				
+				try {
+					client.sendRawLineImmediately(line.raw);
+				} catch (RuntimeException e) {
+					log.error("failed to send message to {}", line.target, e);
+					synchronized (this) {
+						unconfirmed.remove(line.raw);
+					}
+				}
+			}
+		} catch (InterruptedException ignore) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	// blocks until a line is pending and a token is available, returns null once the scheduler has been shut down
+	private synchronized Line take() throws InterruptedException {
+		while (true) {
+			if (!running)
+				return null;
+			
+			var next = peek();
+			if (next == null) {
+				wait();
+				continue;
+			}
+			
+			refill();
+			if (tokens < 1) {
+				long missing = (long) ((1 - tokens) * cfg.refill);
+				TimeUnit.MILLISECONDS.timedWait(this, Math.max(1, missing));
+				continue;
+			}
+			
+			tokens--;
+			var line = poll(next);
+			
+			// the output listener will see this line, but it has already been paid for
+			if (unconfirmed.size() >= MAX_UNCONFIRMED)
+				unconfirmed.clear();
+			unconfirmed.add(line.raw);
+			
+			var s = stats.get(next);
+			long wait = System.nanoTime() - line.queued;
+			s.sent++;
+			s.totalWait += wait;
+			s.maxWait = Math.max(s.maxWait, wait);
+			return line;
+		}
+	}
+	
+	// returns the highest priority with pending lines
+	private LimiterConfig.Priority peek() {
+		for (var e : queues.entrySet())
+			if (!e.getValue().isEmpty())
+				return e.getKey();
+		return null;
+	}
+	
+	// takes the next line of the first target and moves that target to the end of the rotation
+	private Line poll(LimiterConfig.Priority priority) {
+		var targets = queues.get(priority);
+		Iterator<Map.Entry<String, ArrayDeque<Line>>> it = targets.entrySet().iterator();
+		var e = it.next();
+		var queue = e.getValue();
+		var line = queue.poll();
+		it.remove();
+		if (!queue.isEmpty())
+			targets.put(e.getKey(), queue);
+		return line;
+	}
+	
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(cfg.burst, tokens + (double) (now - lastRefill) / TimeUnit.MILLISECONDS.toNanos(cfg.refill));
+		lastRefill = now;
+	}
+	
+	private static final class Line {
+		
+		private final String target;
+		private final String raw; // complete line as it is sent to the server
+		private final long queued; // nano time at which this line was queued
+		
+		private Line(String target, String message, long queued) {
+			this.target = target;
+			raw = "PRIVMSG " + target + " :" + message;
+			this.queued = queued;
+		}
+	}
+	
+	@Getter
+	@ToString
+	public static final class Stats {
+		
+		private final LimiterConfig.Priority priority;
+		private long sent;
+		private long totalWait; // in nanoseconds
+		private long maxWait; // in nanoseconds
+		private int queued;
+		
+		private Stats(LimiterConfig.Priority priority) {
+			this.priority = priority;
+		}
+		
+		/**
+		 * Combines the statistics of multiple schedulers into a single entry per priority.
+		 */
+		public static List<Stats> merge(List<Stats> stats) {
+			Map<LimiterConfig.Priority, Stats> merged = new EnumMap<>(LimiterConfig.Priority.class);
+			for (var s : stats) {
+				var m = merged.computeIfAbsent(s.priority, Stats::new);
+				m.sent += s.sent;
+				m.totalWait += s.totalWait;
+				m.maxWait = Math.max(m.maxWait, s.maxWait);
+				m.queued += s.queued;
+			}
+			return new ArrayList<>(merged.values());
+		}
+		
+		private Stats copy() {
+			var copy = new Stats(priority);
+			copy.sent = sent;
+			copy.totalWait = totalWait;
+			copy.maxWait = maxWait;
+			return copy;
+		}
+	}
+	
+	@ToString
+	public static class Config {
+		
+		@Getter private boolean enabled;
+		private int burst = 4; // number of lines that can be sent without delay
+		private long refill = 2000; // time in ms until another line can be sent
+	}
+}
@@ -3,8 +3,13 @@ package chrisliebaer.chrisliebot.abstraction.irc;
 import chrisliebaer.chrisliebot.abstraction.ChrislieChannel;
 import chrisliebaer.chrisliebot.abstraction.ChrislieMessage;
 import chrisliebaer.chrisliebot.abstraction.ChrislieService;
+import chrisliebaer.chrisliebot.abstraction.LimiterConfig;
 import chrisliebaer.chrisliebot.abstraction.ServiceAttached;
+import chrisliebaer.chrisliebot.config.ContextResolver;
+import chrisliebaer.chrisliebot.util.IrcToSqlLogger;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Multimap;
+import com.google.common.hash.Hashing;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
@@ -12,18 +17,34 @@ import lombok.extern.slf4j.Slf4j;
 import net.engio.mbassy.listener.Handler;
 import org.kitteh.irc.client.library.Client;
 import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.element.MessageReceiver;
 import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.event.channel.ChannelInviteEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelJoinEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelKickEvent;
 import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelModeEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelPartEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelUsersUpdatedEvent;
 import org.kitteh.irc.client.library.event.connection.ClientConnectionEndedEvent;
 import org.kitteh.irc.client.library.event.user.PrivateMessageEvent;
+import org.kitteh.irc.client.library.event.user.UserAccountStatusEvent;
+import org.kitteh.irc.client.library.event.user.UserNickChangeEvent;
+import org.kitteh.irc.client.library.event.user.UserQuitEvent;
 
-import java.util.Collection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 
@@ -45,42 +66,265 @@ public class IrcService implements ChrislieService {
 	
 	public static final String PREFIX_USER_BY_NICKNAME = "NICK:";
 	
+	// first connection, used for everything that isn't bound to a channel
 	@Getter private final Client client;
+	
+	// all connections to the network, each channel is joined by exactly one of them
+	private final List<Client> clients;
 	@Getter private final String identifier;
 	private final Multimap<String, Pattern> guildMap;
 	private Set<String> ignore;
 	
-	@Setter private Consumer<ChrislieMessage> sink;
+	@Setter private volatile Consumer<ChrislieMessage> sink;
+	
+	// notified about changes that affect selectors, so cached contexts can be dropped
+	private volatile ContextResolver resolver;
+	
+	// resolves user identifiers without scanning every channel
+	private final IrcUserIndex users;
+	
+	// nickname trees of channels that have been written to, updated as users come and go
+	private final Map<String, NickEscaper> escapers = new ConcurrentHashMap<>();
+	
+	// guild of every channel we are part of, since matching channel names against the guild map is expensive
+	private final Map<String, Optional<String>> guildByChannel = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> channelsByGuild = new ConcurrentHashMap<>(); // channel keys, only guilds with channels
 	
-	public IrcService(@NonNull Client client, @NonNull String identifier, Multimap<String, Pattern> guildMap, Set<String> ignore) {
-		this.client = client;
+	// connection that has joined each channel by channel key, only events of that connection are processed for the channel
+	private final Map<String, Owner> owners = new ConcurrentHashMap<>();
+	
+	// orders outgoing messages of each connection by priority and target, empty if messages are handed directly to the library
+	private final Map<Client, IrcSendScheduler> schedulers;
+	
+	// resources that are tied to the connection of this service, closed after the client has been shut down
+	private final List<AutoCloseable> resources = new CopyOnWriteArrayList<>();
+	
+	// shared by all connections, null if chat logging is disabled
+	private volatile IrcToSqlLogger chatLogger;
+	
+	public IrcService(@NonNull List<Client> clients, @NonNull String identifier, Multimap<String, Pattern> guildMap, Set<String> ignore,
+					  @NonNull Map<Client, IrcSendScheduler> schedulers) {
+		Preconditions.checkArgument(!clients.isEmpty(), "service requires at least one connection");
+		this.clients = List.copyOf(clients);
+		client = this.clients.get(0);
+		users = new IrcUserIndex(this::liveChannel);
 		this.identifier = identifier;
 		this.guildMap = guildMap;
 		this.ignore = ignore;
+		this.schedulers = Map.copyOf(schedulers);
 	}
 	
-	protected Optional<IrcGuild> channelToGuild(Channel channel) {
-		var channelName = channel.getName();
-		for (var e : guildMap.asMap().entrySet()) {
-			var name = e.getKey();
-			for (var pattern : e.getValue()) {
-				if (pattern.matcher(channelName).find())
-					return guild(name);
-			}
+	/**
+	 * @return All connections of this service, starting with the primary connection.
+	 */
+	public List<Client> clients() {
+		return clients;
+	}
+	
+	/**
+	 * @return {@code true} if the given user is any of our own connections.
+	 */
+	public boolean isSelf(User user) {
+		for (var c : clients)
+			if (c.isUser(user))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * @param name The name of the channel.
+	 * @return The channel with the given name, as seen by the connection that has joined it.
+	 */
+	public Optional<Channel> liveChannel(String name) {
+		var owner = owners.get(channelKey(name));
+		if (owner != null) {
+			var channel = owner.client.getChannel(name);
+			if (channel.isPresent())
+				return channel;
+		}
+		
+		// channels that have been joined before we got notified
+		for (var c : clients) {
+			var channel = c.getChannel(name);
+			if (channel.isPresent())
+				return channel;
 		}
 		return Optional.empty();
 	}
 	
+	/**
+	 * @param client  The connection to check.
+	 * @param channel The name of the channel.
+	 * @return {@code true} if the given connection is the one that handles the given channel. Other connections might
+	 * still be in the channel for a short moment and their events have to be ignored, since they are duplicates.
+	 */
+	public boolean owns(@NonNull Client client, @NonNull String channel) {
+		var owner = owners.get(channelKey(channel));
+		return owner != null && owner.client == client;
+	}
+	
+	/**
+	 * @param client The connection to check.
+	 * @param user   The user as seen by the given connection.
+	 * @return {@code true} if the given connection is the one that handles events of the given user that aren't bound
+	 * to a channel, such as quits and nick changes. That's the owner of the first of the user's channels or the primary
+	 * connection, if none of the user's channels is joined.
+	 */
+	public boolean owns(@NonNull Client client, @NonNull User user) {
+		String first = null;
+		for (var channel : user.getChannels()) {
+			var key = channelKey(channel);
+			if (owners.containsKey(key) && (first == null || key.compareTo(first) < 0))
+				first = key;
+		}
+		
+		var owner = first == null ? null : owners.get(first);
+		return owner == null ? client == this.client : owner.client == client;
+	}
+	
+	/**
+	 * @param client The connection to check.
+	 * @param nick   Our own nickname in a private conversation.
+	 * @return {@code true} if the given connection is the one that handles the private conversation. That's the first
+	 * connection that goes by the given nickname or the primary connection, if none does.
+	 */
+	public boolean ownsQuery(@NonNull Client client, @NonNull String nick) {
+		for (var c : clients)
+			if (c.getNick().equalsIgnoreCase(nick))
+				return c == client;
+		return client == this.client;
+	}
+	
+	/**
+	 * Joins the given channel with the connection that the channel is assigned to. Channels are assigned with a
+	 * consistent hash, so adding connections only moves a small share of channels.
+	 *
+	 * @param channel The channel to join.
+	 * @param key     The channel key or {@code null} if the channel has none.
+	 */
+	public void join(@NonNull String channel, String key) {
+		if (liveChannel(channel).isPresent())
+			return;
+		
+		var c = shard(channel);
+		if (key == null)
+			c.addChannel(channel);
+		else
+			c.addKeyProtectedChannel(channel, key);
+	}
+	
+	private Client shard(String channel) {
+		var hash = Hashing.murmur3_128().hashString(channelKey(channel), StandardCharsets.UTF_8);
+		return clients.get(Hashing.consistentHash(hash, clients.size()));
+	}
+	
+	/**
+	 * Sends the given message to the given receiver, either via the send scheduler of the connection that the receiver
+	 * belongs to or the queue of the library.
+	 */
+	protected void send(MessageReceiver receiver, LimiterConfig limiterConfig, String message) {
+		var scheduler = schedulers.get(receiver.getClient());
+		if (scheduler == null)
+			limiterConfig.send(receiver, message);
+		else
+			scheduler.send(receiver.getMessagingName(), limiterConfig, message);
+	}
+	
+	/**
+	 * Registers a resource that will be closed once this service exits.
+	 */
+	public void closeOnExit(@NonNull AutoCloseable resource) {
+		resources.add(resource);
+	}
+	
+	/**
+	 * Attaches the chat logger of this service, it will be closed once this service exits.
+	 */
+	public void chatLogger(@NonNull IrcToSqlLogger logger) {
+		// events of our own joins and parts might be seen before or after ownership changes, so only other owners are filtered
+		logger.channelFilter((c, channel) -> {
+			var owner = owners.get(channelKey(channel));
+			return owner == null || owner.client == c;
+		});
+		logger.userFilter(this::owns);
+		logger.queryFilter(this::ownsQuery);
+		chatLogger = logger;
+		closeOnExit(logger);
+	}
+	
+	/**
+	 * @return The chat logger of this service, exposes the number of dropped and pending records.
+	 */
+	public Optional<IrcToSqlLogger> chatLogger() {
+		return Optional.ofNullable(chatLogger);
+	}
+	
+	/**
+	 * @return The queue statistics of the send scheduler, or an empty list if this service doesn't use one.
+	 */
+	public List<IrcSendScheduler.Stats> sendStats() {
+		List<IrcSendScheduler.Stats> stats = new ArrayList<>();
+		for (var scheduler : schedulers.values())
+			stats.addAll(scheduler.stats());
+		return IrcSendScheduler.Stats.merge(stats);
+	}
+	
+	/**
+	 * @return The number of protocol lines that have been charged against the budget of the send schedulers.
+	 */
+	public long protocolLines() {
+		long sum = 0;
+		for (var scheduler : schedulers.values())
+			sum += scheduler.protocolLines();
+		return sum;
+	}
+	
+	protected Optional<IrcGuild> channelToGuild(Channel channel) {
+		return trackGuild(channel.getName()).flatMap(this::guild);
+	}
+	
+	// returns the guild of the given channel, matching it against the guild map only once
+	private Optional<String> trackGuild(String channelName) {
+		return guildByChannel.computeIfAbsent(channelKey(channelName), k -> {
+			// a channel is listed in every guild it matches, but only the first guild is its own
+			Optional<String> first = Optional.empty();
+			for (var e : guildMap.asMap().entrySet()) {
+				var name = e.getKey();
+				for (var pattern : e.getValue()) {
+					if (pattern.matcher(channelName).find()) {
+						channelsByGuild.computeIfAbsent(name, n -> ConcurrentHashMap.newKeySet()).add(k);
+						if (first.isEmpty())
+							first = Optional.of(name);
+						break;
+					}
+				}
+			}
+			return first;
+		});
+	}
+	
+	private void untrackGuild(String channelName) {
+		var key = channelKey(channelName);
+		guildByChannel.remove(key);
+		for (var channels : channelsByGuild.values())
+			channels.remove(key);
+	}
+	
 	@Override
 	public void awaitReady() throws Exception {
-		client.getEventManager().registerEventListener(this);
+		// listener has been registered by the bootstrap before connecting, so we have seen every join
 		
 		// TODO: check if and how we can ensure we are somewhat ready for connections
 	}
 	
 	@Handler
 	public void onChannelMessage(ChannelMessageEvent ev) {
-		if (ignore.contains(ev.getActor().getNick()) || client.isUser(ev.getActor()))
+		if (!owns(ev.getClient(), ev.getChannel().getName()))
+			return;
+		
+		users.update(ev.getActor()); // account information might not have been known when the user joined
+		
+		if (ignore.contains(ev.getActor().getNick()) || isSelf(ev.getActor()))
 			return;
 		
 		var sink = this.sink;
@@ -90,7 +334,9 @@ public class IrcService implements ChrislieService {
 	
 	@Handler
 	public void onPrivateMessage(PrivateMessageEvent ev) {
-		if (ignore.contains(ev.getActor().getNick()) || client.isUser(ev.getActor()))
+		users.update(ev.getActor());
+		
+		if (ignore.contains(ev.getActor().getNick()) || isSelf(ev.getActor()))
 			return;
 		
 		var sink = this.sink;
@@ -98,8 +344,183 @@ public class IrcService implements ChrislieService {
 			sink.accept(IrcMessage.of(this, ev));
 	}
 	
+	@Override
+	public void announceResolver(ContextResolver resolver) {
+		this.resolver = resolver;
+	}
+	
+	@Handler
+	public void onInvite(ChannelInviteEvent ev) {
+		if (!ev.getTarget().equals(ev.getClient().getNick()))
+			return;
+		
+		var owner = owners.get(channelKey(ev.getChannel().getName()));
+		if (owner != null && owner.client != ev.getClient()) {
+			log.info("ignoring invite from {} to join {}, channel is already joined by {}",
+					ev.getActor().getName(), ev.getChannel().getName(), owner.client.getNick());
+			return;
+		}
+		
+		log.info("received invite from {} to join {}", ev.getActor().getName(), ev.getChannel().getName());
+		ev.getChannel().join();
+	}
+	
+	@Handler
+	public void onJoin(ChannelJoinEvent ev) {
+		if (ev.getClient().isUser(ev.getUser())) {
+			if (!claim(ev.getClient(), ev.getChannel()))
+				return;
+			trackGuild(ev.getChannel().getName());
+		}
+		if (!owns(ev.getClient(), ev.getChannel().getName()))
+			return;
+		
+		users.join(ev.getChannel(), ev.getUser());
+		escaper(ev.getChannel()).ifPresent(escaper -> escaper.add(ev.getUser().getNick()));
+		invalidate(ev.getChannel());
+	}
+	
+	@Handler
+	public void onPart(ChannelPartEvent ev) {
+		if (!owns(ev.getClient(), ev.getChannel().getName()))
+			return;
+		
+		if (ev.getClient().isUser(ev.getUser())) {
+			leave(ev.getChannel().getName());
+		} else {
+			users.part(ev.getChannel(), ev.getUser());
+			escaper(ev.getChannel()).ifPresent(escaper -> escaper.remove(ev.getUser().getNick()));
+		}
+		invalidate(ev.getChannel());
+	}
+	
+	@Handler
+	public void onKick(ChannelKickEvent ev) {
+		if (!owns(ev.getClient(), ev.getChannel().getName()))
+			return;
+		
+		if (ev.getClient().isUser(ev.getTarget())) {
+			leave(ev.getChannel().getName());
+		} else {
+			users.part(ev.getChannel(), ev.getTarget());
+			escaper(ev.getChannel()).ifPresent(escaper -> escaper.remove(ev.getTarget().getNick()));
+		}
+		invalidate(ev.getChannel());
+	}
+	
+	// makes the given connection the owner of the given channel, unless another connection got there first
+	private boolean claim(Client client, Channel channel) {
+		var owner = owners.putIfAbsent(channelKey(channel.getName()), new Owner(client, channel.getName()));
+		if (owner == null || owner.client == client)
+			return true;
+		
+		// happens if two connections get invited to the same channel, we would see every event twice
+		log.warn("{} joined {}, which is already joined by {}, leaving again", client.getNick(), channel.getName(), owner.client.getNick());
+		channel.part("Bin hier schon");
+		return false;
+	}
+	
+	// drops everything we know about a channel that we are no longer part of
+	private void leave(String channel) {
+		owners.remove(channelKey(channel));
+		users.leave(channel);
+		escapers.remove(channelKey(channel));
+		untrackGuild(channel);
+	}
+	
+	// fired once the user list of a channel has been received after joining
+	@Handler
+	public void onUsersUpdated(ChannelUsersUpdatedEvent ev) {
+		if (!owns(ev.getClient(), ev.getChannel().getName()))
+			return;
+		
+		users.rebuild(ev.getChannel());
+		escapers.remove(channelKey(ev.getChannel().getName())); // rebuilt on next use
+		invalidate(ev.getChannel());
+	}
+	
+	@Handler
+	public void onMode(ChannelModeEvent ev) {
+		if (!owns(ev.getClient(), ev.getChannel().getName()))
+			return;
+		
+		invalidate(ev.getChannel());
+	}
+	
+	@Handler
+	public void onQuit(UserQuitEvent ev) {
+		if (!owns(ev.getClient(), ev.getUser()))
+			return;
+		
+		users.quit(ev.getUser());
+		escapers.values().forEach(escaper -> escaper.remove(ev.getUser().getNick()));
+		invalidate(ev.getUser());
+	}
+	
+	@Handler
+	public void onNickChange(UserNickChangeEvent ev) {
+		if (!owns(ev.getClient(), ev.getNewUser()))
+			return;
+		
+		users.rename(ev.getOldUser(), ev.getNewUser());
+		for (var escaper : escapers.values()) {
+			if (escaper.remove(ev.getOldUser().getNick()))
+				escaper.add(ev.getNewUser().getNick());
+		}
+		invalidate(ev.getOldUser());
+		invalidate(ev.getNewUser());
+	}
+	
+	@Handler
+	public void onAccountChange(UserAccountStatusEvent ev) {
+		// event might carry the old state, so we look up the current one
+		users.byNick(ev.getActor().getNick()).ifPresent(users::update);
+		invalidate(ev.getActor());
+	}
+	
+	private void invalidate(Channel channel) {
+		var resolver = this.resolver;
+		if (resolver != null)
+			resolver.invalidate(new IrcChannel(this, channel, null)); // guild is not part of channel identifier
+	}
+	
+	// drops contexts of the given user and every channel the user is part of, since some selectors check channel members
+	private void invalidate(User user) {
+		var resolver = this.resolver;
+		if (resolver == null)
+			return;
+		
+		var ircUser = new IrcUser(this, user);
+		resolver.invalidate(ircUser);
+		resolver.invalidate(ircUser.asNickname());
+		for (var channel : user.getChannels())
+			liveChannel(channel).ifPresent(this::invalidate);
+	}
+	
+	/**
+	 * Escapes all nicknames of the given channel in the given string, so they don't highlight anyone.
+	 */
+	protected String escapeNicks(Channel channel, String s) {
+		return escapers.computeIfAbsent(channelKey(channel.getName()), k -> new NickEscaper(channel.getNicknames())).escape(s);
+	}
+	
+	private Optional<NickEscaper> escaper(Channel channel) {
+		return Optional.ofNullable(escapers.get(channelKey(channel.getName())));
+	}
+	
+	private static String channelKey(String channel) {
+		return channel.toLowerCase(Locale.ROOT);
+	}
+	
 	@Handler
 	public void onDisconnect(ClientConnectionEndedEvent ev) {
+		// channels are joined again after reconnecting, other connections are not affected
+		var lost = new ArrayList<String>();
+		for (var owner : owners.values())
+			if (owner.client == ev.getClient())
+				lost.add(owner.channel);
+		lost.forEach(this::leave);
+		
 		if (ev.canAttemptReconnect()) {
 			ev.getCause().ifPresentOrElse(
 					e -> log.info("service {} lost connection, attempting reconnect", identifier, e),
@@ -112,14 +533,30 @@ public class IrcService implements ChrislieService {
 	
 	@Override
 	public void reconnect() {
-		client.reconnect();
+		clients.forEach(Client::reconnect);
 	}
 	
 	@Override
 	public void exit() {
 		// TODO: actually wait for full shutdown
-		client.getEventManager().unregisterEventListener(this);
-		client.shutdown();
+		for (var c : clients) {
+			c.getEventManager().unregisterEventListener(this);
+			var scheduler = schedulers.get(c);
+			if (scheduler != null)
+				scheduler.shutdown();
+			c.shutdown();
+		}
+		
+		for (var resource : resources) {
+			try {
+				resource.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.warn("interrupted while closing {}", resource);
+			} catch (Exception e) {
+				log.error("failed to close {}", resource, e);
+			}
+		}
 	}
 	
 	@Override
@@ -130,7 +567,7 @@ public class IrcService implements ChrislieService {
 				.anyMatch(p -> identifier.startsWith(String.valueOf(p)));
 		
 		if (isChannel) {
-			return client.getChannel(identifier)
+			return liveChannel(identifier)
 					.map(channel -> {
 						var guildIdentifier = channelToGuild(channel);
 						return new IrcChannel(this, channel, guildIdentifier.orElse(null));
@@ -146,11 +583,20 @@ public class IrcService implements ChrislieService {
 	}
 	
 	protected Optional<User> userByPrefixedIdentifier(String prefixedIdentifier) {
-		// creates a stream of all users known to this instance
-		var userStream = client.getChannels().stream()
-				.map(Channel::getUsers)
-				.flatMap(Collection::stream);
-		return userByPrefixedIdentifier(prefixedIdentifier, userStream);
+		if (prefixedIdentifier.startsWith(PREFIX_USER_BY_ACCOUNT))
+			return users.byAccount(prefixedIdentifier.substring(PREFIX_USER_BY_ACCOUNT.length()));
+		if (prefixedIdentifier.startsWith(PREFIX_USER_BY_NICKNAME))
+			return users.byNick(prefixedIdentifier.substring(PREFIX_USER_BY_NICKNAME.length()));
+		throw new IllegalArgumentException("unkown prefix in user identifier: " + prefixedIdentifier);
+	}
+	
+	// same as above, but limited to members of the given channel
+	protected Optional<User> userByPrefixedIdentifier(String prefixedIdentifier, Channel channel) {
+		if (prefixedIdentifier.startsWith(PREFIX_USER_BY_ACCOUNT))
+			return users.byAccount(prefixedIdentifier.substring(PREFIX_USER_BY_ACCOUNT.length()), channel);
+		if (prefixedIdentifier.startsWith(PREFIX_USER_BY_NICKNAME))
+			return users.byNick(prefixedIdentifier.substring(PREFIX_USER_BY_NICKNAME.length()), channel);
+		throw new IllegalArgumentException("unkown prefix in user identifier: " + prefixedIdentifier);
 	}
 	
 	// This method resolves a prefixed indentifier, as it is used by the irc service to a library user instance.
@@ -184,22 +630,23 @@ public class IrcService implements ChrislieService {
 	@Override
 	public Optional<IrcGuild> guild(String identifier) {
 		
-		var patterns = guildMap.get(identifier);
-		if (patterns == null)
-			return Optional.empty();
-		
-		var pred = patterns.stream()
-				.map(Pattern::asPredicate)
-				.reduce(Predicate::or).orElse(s -> false); // if no regex is given, we still instance the guild with no channels
-		
-		var channels = client.getChannels().stream()
-				.filter(channel -> pred.test(channel.getName()))
-				.collect(Collectors.toList());
-		
-		return Optional.of(new IrcGuild(this, identifier, channels));
+		// guilds without any joined channels still exist, channels are only resolved when requested
+		var channels = channelsByGuild.getOrDefault(identifier, Set.of());
+		return Optional.of(new IrcGuild(this, identifier, Collections.unmodifiableSet(channels)));
 	}
 	
 	public static boolean isIrc(ServiceAttached service) {
 		return service.service() instanceof IrcService;
 	}
+	
+	private static final class Owner {
+		
+		private final Client client;
+		private final String channel; // name as reported by the server, indices are not case insensitive
+		
+		private Owner(Client client, String channel) {
+			this.client = client;
+			this.channel = channel;
+		}
+	}
 }
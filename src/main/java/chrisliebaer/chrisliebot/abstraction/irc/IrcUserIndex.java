@@ -0,0 +1,172 @@
+package chrisliebaer.chrisliebot.abstraction.irc;
+
+import lombok.NonNull;
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.element.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Keeps track of which nicknames are present in which channels and which account they are logged in with, so users
+ * can be resolved without walking the user list of every joined channel. Since the library only hands out snapshots,
+ * this index only stores names and looks up the current user instance on demand. Every result is verified against
+ * the current state of the library, so stale entries can only cause a lookup to miss, never to return a wrong user.
+ */
+class IrcUserIndex {
+	
+	// looks up a joined channel by its name
+	private final Function<String, Optional<Channel>> channels;
+	
+	// all maps are guarded by this instance
+	private final Map<String, Set<String>> channelsByNick = new HashMap<>();
+	private final Map<String, Set<String>> nicksByAccount = new HashMap<>();
+	private final Map<String, String> accountByNick = new HashMap<>();
+	
+	public IrcUserIndex(@NonNull Function<String, Optional<Channel>> channels) {
+		this.channels = channels;
+	}
+	
+	public synchronized void join(Channel channel, User user) {
+		channelsByNick.computeIfAbsent(user.getNick(), k -> new HashSet<>()).add(channel.getName());
+		account(user.getNick(), user.getAccount().orElse(null));
+	}
+	
+	public synchronized void part(Channel channel, User user) {
+		var channels = channelsByNick.get(user.getNick());
+		if (channels == null)
+			return;
+		
+		channels.remove(channel.getName());
+		if (channels.isEmpty())
+			forget(user.getNick());
+	}
+	
+	public synchronized void quit(User user) {
+		forget(user.getNick());
+	}
+	
+	public synchronized void rename(User oldUser, User newUser) {
+		var channels = channelsByNick.remove(oldUser.getNick());
+		account(oldUser.getNick(), null);
+		if (channels != null) {
+			channelsByNick.put(newUser.getNick(), channels);
+			account(newUser.getNick(), newUser.getAccount().orElse(null));
+		}
+	}
+	
+	/**
+	 * Updates the account of a user that is already known to this index. Unknown users are ignored, since they don't
+	 * share a channel with us and can't be resolved anyway.
+	 */
+	public synchronized void update(User user) {
+		if (channelsByNick.containsKey(user.getNick()))
+			account(user.getNick(), user.getAccount().orElse(null));
+	}
+	
+	/**
+	 * Replaces the members of the given channel with its current user list.
+	 */
+	public synchronized void rebuild(Channel channel) {
+		leave(channel.getName());
+		for (var user : channel.getUsers())
+			join(channel, user);
+	}
+	
+	/**
+	 * Removes the given channel from this index, used when we left the channel ourselves.
+	 */
+	public synchronized void leave(String channel) {
+		var it = channelsByNick.entrySet().iterator();
+		List<String> orphaned = new ArrayList<>();
+		while (it.hasNext()) {
+			var e = it.next();
+			if (e.getValue().remove(channel) && e.getValue().isEmpty())
+				orphaned.add(e.getKey());
+		}
+		orphaned.forEach(this::forget);
+	}
+	
+	public synchronized void clear() {
+		channelsByNick.clear();
+		nicksByAccount.clear();
+		accountByNick.clear();
+	}
+	
+	private void forget(String nick) {
+		channelsByNick.remove(nick);
+		account(nick, null);
+	}
+	
+	private void account(String nick, String account) {
+		var previous = account == null ? accountByNick.remove(nick) : accountByNick.put(nick, account);
+		if (previous != null && !previous.equals(account)) {
+			var nicks = nicksByAccount.get(previous);
+			if (nicks != null) {
+				nicks.remove(nick);
+				if (nicks.isEmpty())
+					nicksByAccount.remove(previous);
+			}
+		}
+		if (account != null)
+			nicksByAccount.computeIfAbsent(account, k -> new HashSet<>()).add(nick);
+	}
+	
+	public Optional<User> byNick(String nick) {
+		List<String> channels;
+		synchronized (this) {
+			var set = channelsByNick.get(nick);
+			if (set == null)
+				return Optional.empty();
+			channels = new ArrayList<>(set);
+		}
+		
+		// any channel will do, since all of them share the same user instance
+		for (var name : channels) {
+			var channel = this.channels.apply(name);
+			if (channel.isPresent()) {
+				var user = byNick(nick, channel.get());
+				if (user.isPresent())
+					return user;
+			}
+		}
+		return Optional.empty();
+	}
+	
+	public Optional<User> byNick(String nick, Channel channel) {
+		return channel.getUser(nick).filter(user -> user.getNick().equals(nick));
+	}
+	
+	public Optional<User> byAccount(String account) {
+		for (var nick : nicks(account)) {
+			var user = byNick(nick).filter(u -> hasAccount(u, account));
+			if (user.isPresent())
+				return user;
+		}
+		return Optional.empty();
+	}
+	
+	public Optional<User> byAccount(String account, Channel channel) {
+		for (var nick : nicks(account)) {
+			var user = byNick(nick, channel).filter(u -> hasAccount(u, account));
+			if (user.isPresent())
+				return user;
+		}
+		return Optional.empty();
+	}
+	
+	private synchronized List<String> nicks(String account) {
+		var nicks = nicksByAccount.get(account);
+		return nicks == null ? List.of() : new ArrayList<>(nicks);
+	}
+	
+	private static boolean hasAccount(User user, String account) {
+		return user.getAccount().filter(account::equals).isPresent();
+	}
+}
@@ -0,0 +1,123 @@
+package chrisliebaer.chrisliebot.abstraction.irc;
+
+import chrisliebaer.chrisliebot.C;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Case insensitive prefix tree of all nicknames in a channel. Used to break up nicknames in outgoing messages so they
+ * don't highlight users. Unlike a pattern over all nicknames, the tree can be updated whenever a single user joins or
+ * leaves and doesn't have to be rebuilt for every message.
+ */
+class NickEscaper {
+	
+	private final Node root = new Node();
+	
+	public NickEscaper(Collection<String> nicks) {
+		for (var nick : nicks)
+			add(nick);
+	}
+	
+	public synchronized void add(String nick) {
+		if (nick.isEmpty())
+			return;
+		
+		var node = root;
+		for (int i = 0; i < nick.length(); i++)
+			node = node.children.computeIfAbsent(fold(nick.charAt(i)), c -> new Node());
+		if (node.nicks == null)
+			node.nicks = new HashSet<>(2);
+		node.nicks.add(nick);
+	}
+	
+	/**
+	 * @return {@code true} if the nickname was part of this tree.
+	 */
+	public synchronized boolean remove(String nick) {
+		List<Node> path = new ArrayList<>(nick.length() + 1);
+		var node = root;
+		path.add(node);
+		for (int i = 0; i < nick.length() && node != null; i++) {
+			node = node.children.get(fold(nick.charAt(i)));
+			path.add(node);
+		}
+		
+		if (node == null || node.nicks == null || !node.nicks.remove(nick))
+			return false;
+		if (node.nicks.isEmpty())
+			node.nicks = null;
+		
+		// prune nodes that no longer lead to any nickname
+		for (int i = nick.length(); i > 0; i--) {
+			var n = path.get(i);
+			if (n.nicks != null || !n.children.isEmpty())
+				break;
+			path.get(i - 1).children.remove(fold(nick.charAt(i - 1)));
+		}
+		return true;
+	}
+	
+	/**
+	 * Inserts a zero width character after the first character of every nickname in the given string. At each position
+	 * the longest matching nickname is escaped, matching continues after the end of that nickname.
+	 *
+	 * @param s The string to escape.
+	 * @return The escaped string.
+	 */
+	public synchronized String escape(String s) {
+		StringBuilder sb = null;
+		int copied = 0;
+		
+		int i = 0;
+		while (i < s.length()) {
+			int end = longestMatch(s, i);
+			if (end < 0) {
+				i++;
+				continue;
+			}
+			
+			// single character nicknames can't be split
+			if (end - i > 1) {
+				if (sb == null)
+					sb = new StringBuilder(s.length() + 16);
+				sb.append(s, copied, i + 1).append(C.ZERO_WIDTH_NO_BREAK_SPACE);
+				copied = i + 1;
+			}
+			i = end;
+		}
+		
+		if (sb == null)
+			return s;
+		return sb.append(s, copied, s.length()).toString();
+	}
+	
+	// returns the end index of the longest nickname starting at the given offset, or -1 if there is none
+	private int longestMatch(String s, int offset) {
+		int end = -1;
+		var node = root;
+		for (int i = offset; i < s.length(); i++) {
+			node = node.children.get(fold(s.charAt(i)));
+			if (node == null)
+				break;
+			if (node.nicks != null)
+				end = i + 1;
+		}
+		return end;
+	}
+	
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+	
+	private static final class Node {
+		
+		private final Map<Character, Node> children = new HashMap<>(4);
+		private Set<String> nicks; // nicknames ending at this node, null if none
+	}
+}
@@ -1,23 +1,27 @@
 package chrisliebaer.chrisliebot.command;
 
 import chrisliebaer.chrisliebot.Chrisliebot;
+import chrisliebaer.chrisliebot.abstraction.ChrislieIdentifier.ChannelIdentifier;
 import chrisliebaer.chrisliebot.abstraction.ChrislieMessage;
 import chrisliebaer.chrisliebot.config.ChrislieContext;
 import chrisliebaer.chrisliebot.config.ContextResolver;
 import chrisliebaer.chrisliebot.config.flex.FlexConf;
-import chrisliebaer.chrisliebot.config.scope.Selector;
 import chrisliebaer.chrisliebot.util.ErrorOutputBuilder;
+import chrisliebaer.chrisliebot.util.InFlightTracker;
+import chrisliebaer.chrisliebot.util.LaneExecutor;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NonNull;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
+import java.time.Duration;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 @Slf4j
@@ -30,52 +34,134 @@ public class ChrislieDispatcher {
 	
 	private volatile boolean shutdown;
 	
-	private final AtomicInteger shutdownCounter = new AtomicInteger(0);
+	// threads that are currently dispatching a message
+	private final InFlightTracker inFlight = new InFlightTracker();
 	
-	private LoadingCache<String, Pattern> patternCache = CacheBuilder.newBuilder()
+	private final Duration shutdownTimeout;
+	
+	private LoadingCache<String, CommandPattern> patternCache = CacheBuilder.newBuilder()
 			.maximumSize(10)
 			.build(new CacheLoader<>() {
 				@Override
-				public Pattern load(String key) {
-					return Pattern.compile(key);
+				public CommandPattern load(String key) {
+					return CommandPattern.compile(key);
 				}
 			});
 	
 	private ContextResolver resolver;
 	
+	// null if messages are processed on the thread of the service that delivered them
+	private LaneExecutor<ChannelIdentifier> lanes;
+	
 	public ChrislieDispatcher(@NonNull Chrisliebot chrisliebot, @NonNull ContextResolver resolver) {
+		this(chrisliebot, resolver, new Config());
+	}
+	
+	public ChrislieDispatcher(@NonNull Chrisliebot chrisliebot, @NonNull ContextResolver resolver, @NonNull Config cfg) {
 		this.chrisliebot = chrisliebot;
 		this.resolver = resolver;
+		shutdownTimeout = Duration.ofSeconds(cfg.shutdownTimeout);
+		
+		if (cfg.async)
+			lanes = new LaneExecutor<>("DispatcherWorker", cfg.threads, cfg.laneCapacity, cfg.overflowPolicy);
+	}
+	
+	/**
+	 * Shuts down this dispatcher and blocks until all incoming messages have been processed or the configured timeout
+	 * expired. Any incoming messages after a shutdown will be discarded.
+	 *
+	 * @return {@code false} if there were still messages being processed when the timeout expired.
+	 * @see #shutdown(Duration)
+	 */
+	public boolean shutdown() throws InterruptedException {
+		return shutdown(shutdownTimeout);
+	}
+	
+	/**
+	 * Shuts down this dispatcher and blocks until all incoming messages have been processed or the given timeout
+	 * expired. Any incoming messages after a shutdown will be discarded.
+	 *
+	 * @param timeout The maximum time to wait for messages that are currently processed.
+	 * @return {@code false} if there were still messages being processed when the timeout expired.
+	 */
+	public boolean shutdown(@NonNull Duration timeout) throws InterruptedException {
+		return shutdown(timeout, true);
+	}
+	
+	/**
+	 * @see #drain(Duration)
+	 */
+	public boolean drain() throws InterruptedException {
+		return drain(shutdownTimeout);
 	}
 	
 	/**
-	 * Shuts down this dispatcher and blocks until all incoming messages have been processed. Any incoming messages
-	 * after a shutdown will be discarded.
+	 * Stops accepting new messages but, unlike {@link #shutdown(Duration)}, still dispatches messages that have already
+	 * been queued. Used when replacing this dispatcher, since its listeners are still alive at this point.
+	 *
+	 * @param timeout The maximum time to wait for queued messages and messages that are currently processed.
+	 * @return {@code false} if there were still messages being processed when the timeout expired.
 	 */
-	public void shutdown() throws InterruptedException {
-		shutdown = true; // discard all new messages
+	public boolean drain(@NonNull Duration timeout) throws InterruptedException {
+		return shutdown(timeout, false);
+	}
+	
+	private boolean shutdown(Duration timeout, boolean discardQueued) throws InterruptedException {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		if (discardQueued)
+			shutdown = true; // discard all new messages
+		
+		// queued messages will return immediately if the shutdown flag is already set
+		if (lanes != null) {
+			lanes.shutdown();
+			if (!lanes.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				log.warn("dispatcher workers did not finish in time: {}", lanes.stats());
+				return false;
+			}
+		}
+		shutdown = true;
 		
 		// wait for other threads to exit dispatcher section
-		synchronized (shutdownCounter) {
-			while (shutdownCounter.get() != 0)
-				shutdownCounter.wait();
+		var remaining = Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+		if (!inFlight.awaitQuiescence(remaining)) {
+			log.warn("{} messages were still being dispatched when shutdown timed out", inFlight.inFlight());
+			return false;
 		}
+		return true;
+	}
+	
+	/**
+	 * @return The current state of the worker lanes or an empty optional if messages are dispatched synchronously.
+	 */
+	public Optional<LaneExecutor.Stats> laneStats() {
+		return Optional.ofNullable(lanes).map(LaneExecutor::stats);
 	}
 	
 	/**
 	 * Public sink method of this dispatcher. Once called, the dispatcher will build the context of the given message
-	 * and dispatch it to all mapped listeners and commands.
+	 * and dispatch it to all mapped listeners and commands. Unless disabled, this happens on a worker thread. Messages
+	 * from the same channel are always processed in the order they were received.
 	 *
 	 * @param m The message that should be dispatched.
 	 */
 	public void dispatch(@NonNull ChrislieMessage m) {
+		if (lanes == null) {
+			process(m);
+			return;
+		}
+		
+		if (!lanes.submit(ChannelIdentifier.of(m.channel()), () -> process(m)))
+			log.debug("dropped message since dispatcher lane is full or shutting down: {}", m);
+	}
+	
+	private void process(ChrislieMessage m) {
 		try {
-			shutdownCounter.incrementAndGet();
+			inFlight.enter();
 			
 			if (shutdown)
 				return;
 			
-			var ctx = resolver.resolve(Selector::check, m);
+			var ctx = resolver.resolve(m);
 			
 			// dispatcher can be directly controlled via certain group config flax
 			if (ctx.flexConf().isSet(FlexConf.DISPATCHER_DISABLE)) {
@@ -95,6 +181,10 @@ public class ChrislieDispatcher {
 				if (isCommand && listener.get() == ref.envelope().listener())
 					continue;
 				
+				// cheap checks go first, most listeners don't care about most messages
+				if (!ref.envelope().interest().test(m, isCommand))
+					continue;
+				
 				// listeners can be disabled with the same flag that disables the command dispatcher
 				if (ref.flexConf().isSet(FlexConf.DISPATCHER_DISABLE)) {
 					log.trace("listener `{}` is disabled for message: {}", ref.envelope().source(), m);
@@ -120,32 +210,37 @@ public class ChrislieDispatcher {
 				}
 			}
 		} finally {
-			synchronized (shutdownCounter) {
-				shutdownCounter.decrementAndGet();
-				shutdownCounter.notifyAll();
-			}
+			inFlight.exit();
 		}
 	}
 	
 	
 	private Optional<CommandParse> parseCommand(ChrislieMessage m, ChrislieContext ctx) {
 		var flexConf = ctx.flexConf();
-		var patternStr = flexConf.getString(FlexConf.DISPATCHER_PATTERN);
+		var patternStr = flexConf.get(FlexConf.DISPATCHER_PATTERN);
 		if (patternStr.isEmpty()) {
 			log.trace("no dispatcher pattern set, message will be ignored, message was: {}", m);
 			return Optional.empty();
 		}
 		
-		Pattern pattern;
+		CommandPattern commandPattern;
 		try {
-			pattern = patternCache.get(patternStr.get());
+			commandPattern = patternCache.get(patternStr.get());
 		} catch (ExecutionException e) {
 			log.warn("failed to compile dispatcher pattern `{}` for message: {}", patternStr.get(), m, e);
 			return Optional.empty();
 		}
 		
+		// most messages aren't commands, so we try to reject them without running the actual pattern
+		var message = m.message();
+		if (!commandPattern.accepts(message, ctx)) {
+			log.trace("dispatcher prefilter rejected message: {}", m);
+			return Optional.empty();
+		}
+		
 		// patterns are supposed to have two groups: alias, argument
-		var matcher = pattern.matcher(m.message());
+		var pattern = commandPattern.pattern;
+		var matcher = pattern.matcher(message);
 		
 		String alias, argument;
 		if (matcher.find()) {
@@ -269,6 +364,85 @@ public class ChrislieDispatcher {
 		}
 	}
 	
+	/**
+	 * Controls how messages are handed off to listeners.
+	 */
+	@ToString
+	public static class Config {
+		
+		private boolean async = true; // process messages on worker threads instead of the service threads
+		private int threads = 4;
+		private int laneCapacity = 100; // maximum number of pending messages per channel
+		private LaneExecutor.OverflowPolicy overflowPolicy = LaneExecutor.OverflowPolicy.DROP_NEWEST;
+		private long shutdownTimeout = 30; // in seconds
+	}
+	
+	/**
+	 * Dispatcher pattern with a cheap prefilter. If the pattern starts with a literal prefix, messages without that
+	 * prefix can't match. If the alias group directly follows the prefix, the message also has to continue with one of
+	 * the aliases in the context, otherwise the parsed alias would be unknown anyway. Patterns that don't start with a
+	 * literal prefix are always passed to the regex engine.
+	 */
+	private static final class CommandPattern {
+		
+		private static final String ALIAS_GROUP_START = "(?<" + DISPATCHER_PATTERN_GROUP_ALIAS + ">";
+		private static final String METACHARACTERS = ".[](){}|*+?^$\\";
+		private static final String QUANTIFIERS = "?*+{";
+		
+		private final Pattern pattern;
+		private final String prefix; // null if pattern has no literal prefix
+		private final boolean aliasFollowsPrefix;
+		
+		private CommandPattern(Pattern pattern, String prefix, boolean aliasFollowsPrefix) {
+			this.pattern = pattern;
+			this.prefix = prefix;
+			this.aliasFollowsPrefix = aliasFollowsPrefix;
+		}
+		
+		public static CommandPattern compile(String regex) {
+			var pattern = Pattern.compile(regex);
+			
+			// alternations could allow matches without the prefix, so we don't even try
+			if (!regex.startsWith("^") || regex.indexOf('|') >= 0)
+				return new CommandPattern(pattern, null, false);
+			
+			var prefix = new StringBuilder();
+			int i = 1;
+			while (i < regex.length()) {
+				char c = regex.charAt(i);
+				int next = i + 1;
+				
+				// escaped non-alphanumeric characters are literals, everything else is a character class or similar
+				if (c == '\\') {
+					if (next >= regex.length() || Character.isLetterOrDigit(regex.charAt(next)))
+						break;
+					c = regex.charAt(next++);
+				} else if (METACHARACTERS.indexOf(c) >= 0) {
+					break;
+				}
+				
+				// quantified literals might be missing in the message
+				if (next < regex.length() && QUANTIFIERS.indexOf(regex.charAt(next)) >= 0)
+					return new CommandPattern(pattern, prefix.length() == 0 ? null : prefix.toString(), false);
+				
+				prefix.append(c);
+				i = next;
+			}
+			
+			if (prefix.length() == 0)
+				return new CommandPattern(pattern, null, false);
+			return new CommandPattern(pattern, prefix.toString(), regex.startsWith(ALIAS_GROUP_START, i));
+		}
+		
+		public boolean accepts(String message, ChrislieContext ctx) {
+			if (prefix == null)
+				return true;
+			if (!message.startsWith(prefix))
+				return false;
+			return !aliasFollowsPrefix || ctx.aliasTrie().matchesAt(message, prefix.length());
+		}
+	}
+	
 	@Data
 	@AllArgsConstructor
 	public static class CommandParse {
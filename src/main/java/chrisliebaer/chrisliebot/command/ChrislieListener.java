@@ -11,14 +11,17 @@ import chrisliebaer.chrisliebot.config.ContextResolver;
 import chrisliebaer.chrisliebot.config.flex.FlexConf;
 import chrisliebaer.chrisliebot.util.GsonValidator;
 import com.google.gson.JsonElement;
-import lombok.AllArgsConstructor;
+import lombok.Builder;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Singular;
 import lombok.ToString;
 import org.apache.commons.lang3.builder.ToStringExclude;
 
 import javax.annotation.CheckReturnValue;
+import java.util.List;
 import java.util.Optional;
+import java.util.regex.Pattern;
 
 /**
  * Listeners are a core component of Chrisliebots architecture. Pretty much every protocol interaction is handled by a
@@ -127,6 +130,20 @@ public interface ChrislieListener {
 	 */
 	public default void onMessage(ListenerMessage msg, boolean isCommand) throws ListenerException {}
 	
+	/**
+	 * Allows listeners to narrow down the messages they want to receive via {@link #onMessage(ListenerMessage,
+	 * boolean)}. The dispatcher checks the returned interest before doing any work for this listener, which saves a lot
+	 * of overhead for listeners that only care about very few messages. This method is called once after {@link
+	 * #fromConfig(GsonValidator, JsonElement)} and the result must not change afterwards. Listeners that don't override
+	 * {@link #onMessage(ListenerMessage, boolean)} are skipped regardless of their interest.
+	 *
+	 * @return The messages this listener wants to receive. Listeners still have to perform their own checks, since the
+	 * interest is only a hint to the dispatcher.
+	 */
+	public default Interest interest() {
+		return Interest.ALL;
+	}
+	
 	/**
 	 * This subinterface can be implemented if a listener wishes to be also registered as an command. Command listeners
 	 * get a special call to {@link #execute(Invocation)} if the alias they are mapped to is used in a command
@@ -169,12 +186,83 @@ public interface ChrislieListener {
 	/**
 	 * This class is used by the listener system to attach internal information to listeners.
 	 */
-	@AllArgsConstructor
 	@ToString
 	public static class Envelope {
 		
 		@Getter private final @NonNull ChrislieListener listener;
 		@Getter private final @NonNull String source;
+		@Getter @ToString.Exclude private final @NonNull Interest interest;
+		
+		public Envelope(@NonNull ChrislieListener listener, @NonNull String source) {
+			this.listener = listener;
+			this.source = source;
+			interest = overridesOnMessage(listener) ? listener.interest() : Interest.NONE;
+		}
+		
+		private static boolean overridesOnMessage(ChrislieListener listener) {
+			try {
+				var method = listener.getClass().getMethod("onMessage", ListenerMessage.class, boolean.class);
+				return method.getDeclaringClass() != ChrislieListener.class;
+			} catch (NoSuchMethodException e) {
+				throw new IllegalStateException("listener is missing onMessage() method", e);
+			}
+		}
+	}
+	
+	/**
+	 * Describes which messages a listener is interested in. All conditions that are set must be met by a message for
+	 * the listener to be called. Instances are immutable and can be shared between listeners.
+	 */
+	@Builder
+	@ToString
+	public static class Interest {
+		
+		/**
+		 * Accepts every message.
+		 */
+		public static final Interest ALL = Interest.builder().build();
+		
+		/**
+		 * Accepts no message at all.
+		 */
+		public static final Interest NONE = Interest.builder().never(true).build();
+		
+		private final boolean never;
+		private final Class<? extends ChrislieService> service; // only messages from this kind of service
+		private final Boolean directMessage; // true for direct messages only, false for channel messages only
+		private final boolean nonCommandOnly; // ignore messages that triggered a command
+		private final String prefix; // message has to start with this string
+		@Singular("contains") private final List<String> contains; // message has to contain at least one of these strings
+		private final Pattern pattern; // message has to contain a match of this pattern
+		
+		/**
+		 * @param m         The received message.
+		 * @param isCommand Whether the message triggered a command.
+		 * @return {@code true} if the listener should be called for the given message.
+		 */
+		public boolean test(ChrislieMessage m, boolean isCommand) {
+			if (never || (nonCommandOnly && isCommand))
+				return false;
+			if (service != null && !service.isInstance(m.service()))
+				return false;
+			if (directMessage != null && m.channel().isDirectMessage() != directMessage)
+				return false;
+			
+			var text = m.message();
+			if (prefix != null && !text.startsWith(prefix))
+				return false;
+			if (!contains.isEmpty() && !containsAny(text))
+				return false;
+			return pattern == null || pattern.matcher(text).find();
+		}
+		
+		private boolean containsAny(String text) {
+			for (var s : contains) {
+				if (text.contains(s))
+					return true;
+			}
+			return false;
+		}
 	}
 	
 	/**
@@ -255,7 +343,7 @@ public interface ChrislieListener {
 		 */
 		@CheckReturnValue
 		public ChrislieOutput reply() throws ListenerException {
-			return msg.reply(LimiterConfig.of(ref().flexConf()));
+			return msg.reply(LimiterConfig.of(ref().flexConf())).origin(ref().envelope().listener());
 		}
 		
 		/**
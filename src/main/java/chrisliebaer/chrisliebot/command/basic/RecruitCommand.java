@@ -5,6 +5,7 @@ import chrisliebaer.chrisliebot.abstraction.irc.IrcService;
 import chrisliebaer.chrisliebot.command.ChrislieListener;
 import chrisliebaer.chrisliebot.command.ListenerReference;
 import chrisliebaer.chrisliebot.config.ChrislieContext;
+import chrisliebaer.chrisliebot.config.flex.CommonFlex;
 import chrisliebaer.chrisliebot.util.ErrorOutputBuilder;
 import chrisliebaer.chrisliebot.util.GsonValidator;
 import com.google.gson.JsonElement;
@@ -17,6 +18,8 @@ import java.util.Optional;
 @Slf4j
 public class RecruitCommand implements ChrislieListener.Command {
 	
+	private static final CommonFlex.Key<Boolean> FLEX_ALLOW_JOIN = CommonFlex.key("recruit.allowJoin", Boolean.class, false);
+	
 	private Config cfg;
 	
 	@Override
@@ -37,11 +40,10 @@ public class RecruitCommand implements ChrislieListener.Command {
 	private void recruitIrc(Invocation invc) throws ListenerException {
 		var service = (IrcService) invc.service();
 		var arg = invc.arg();
-		var allowJoin = invc.ref().flexConf().isSet("recruit.allowJoin");
+		var allowJoin = invc.ref().flexConf().isSet(FLEX_ALLOW_JOIN);
 		String[] args = arg.split(" ", 2);
 		
 		// irc only allows invite based recruit unless user has permission for join commands
-		var client = service.client();
 		try {
 			if (arg.isEmpty()) {
 				invc.reply("Wenn du mich in deinem Channel haben willst, kannst du mich einfach einladen, ich komme dann zu dir.");
@@ -50,10 +52,10 @@ public class RecruitCommand implements ChrislieListener.Command {
 					var user = invc.msg().user();
 					if (args.length == 1) {
 						log.info("attempting to join {}, triggered by {}", args[0], user.displayName());
-						client.addChannel(args[0]);
+						service.join(args[0], null);
 					} else if (args.length == 2) {
 						log.info("attempting to join {} with passwort, triggered by {}", args[0], user.displayName());
-						client.addKeyProtectedChannel(args[0], args[1]);
+						service.join(args[0], args[1]);
 					}
 				} else {
 					ErrorOutputBuilder.generic("Du bist nicht berechtigt mich in Channel joinen zu lassen.").write(invc).send();
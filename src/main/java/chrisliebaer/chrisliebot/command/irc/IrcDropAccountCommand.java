@@ -8,7 +8,6 @@ import chrisliebaer.chrisliebot.command.ChrislieListener;
 import chrisliebaer.chrisliebot.command.ListenerReference;
 import chrisliebaer.chrisliebot.config.ChrislieContext;
 import chrisliebaer.chrisliebot.config.ContextResolver;
-import chrisliebaer.chrisliebot.config.scope.Selector;
 import chrisliebaer.chrisliebot.util.ErrorOutputBuilder;
 
 import java.util.Optional;
@@ -60,7 +59,7 @@ public class IrcDropAccountCommand implements ChrislieListener.Command {
 		String[] args = arg.split(" ", 2);
 		
 		// TODO: streamline dynamic command dispatching with helper framework
-		var ctx = resolver.resolve(Selector::check, msg);
+		var ctx = resolver.resolve(msg);
 		var maybeRef = ctx.alias(args[0]);
 		if (maybeRef.isEmpty()) {
 			ERROR_COMMAND_NOT_FOUND.write(invc).send();
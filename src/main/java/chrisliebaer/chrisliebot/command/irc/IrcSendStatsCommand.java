@@ -0,0 +1,47 @@
+package chrisliebaer.chrisliebot.command.irc;
+
+import chrisliebaer.chrisliebot.abstraction.irc.IrcMessage;
+import chrisliebaer.chrisliebot.abstraction.irc.IrcService;
+import chrisliebaer.chrisliebot.command.ChrislieListener;
+import chrisliebaer.chrisliebot.command.ListenerReference;
+import chrisliebaer.chrisliebot.config.ChrislieContext;
+import chrisliebaer.chrisliebot.util.ErrorOutputBuilder;
+
+import java.util.Optional;
+import java.util.StringJoiner;
+
+public class IrcSendStatsCommand implements ChrislieListener.Command {
+	
+	private static final ErrorOutputBuilder ERROR_IRC_ONLY = ErrorOutputBuilder.generic("Dieser Befehl ist nur in IRC Netzwerken verfügbar.");
+	
+	@Override
+	public Optional<String> help(ChrislieContext ctx, ListenerReference ref) throws ListenerException {
+		return Optional.of("Zeigt an, wie lange ausgehende Nachrichten in diesem IRC Netzwerk warten müssen und wie viele Protokollzeilen gesendet wurden.");
+	}
+	
+	@Override
+	public void execute(Invocation invc) throws ListenerException {
+		if (!IrcService.isIrc(invc)) {
+			ERROR_IRC_ONLY.write(invc).send();
+			return;
+		}
+		
+		var service = ((IrcMessage) invc.msg()).service();
+		var stats = service.sendStats();
+		if (stats.isEmpty()) {
+			invc.reply("Ausgehende Nachrichten werden nicht priorisiert.");
+			return;
+		}
+		
+		var joiner = new StringJoiner(", ");
+		for (var s : stats) {
+			var line = s.sent() == 0 ?
+					"%d wartend, noch nichts gesendet".formatted(s.queued()) :
+					"%d wartend, %d gesendet, Ø %d ms, max %d ms".formatted(
+							s.queued(), s.sent(), s.totalWait() / s.sent() / 1_000_000, s.maxWait() / 1_000_000);
+			joiner.add(s.priority() + ": " + line);
+		}
+		joiner.add("Protokoll: %d Zeilen".formatted(service.protocolLines()));
+		invc.reply(joiner.toString());
+	}
+}
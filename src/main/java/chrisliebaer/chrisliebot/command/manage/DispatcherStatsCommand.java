@@ -0,0 +1,41 @@
+package chrisliebaer.chrisliebot.command.manage;
+
+import chrisliebaer.chrisliebot.command.ChrislieListener;
+import chrisliebaer.chrisliebot.command.ListenerReference;
+import chrisliebaer.chrisliebot.config.ChrislieContext;
+
+import java.util.Optional;
+
+public class DispatcherStatsCommand implements ChrislieListener.Command {
+	
+	@Override
+	public Optional<String> help(ChrislieContext ctx, ListenerReference ref) throws ListenerException {
+		return Optional.of("Zeigt die aktuelle Auslastung des Dispatchers an.");
+	}
+	
+	@Override
+	public void execute(Invocation invc) throws ListenerException {
+		var maybeStats = invc.bot().managment().dispatcherStats();
+		if (maybeStats.isEmpty()) {
+			invc.reply("Der Dispatcher verarbeitet Nachrichten synchron.");
+			return;
+		}
+		
+		var stats = maybeStats.get();
+		var reply = invc.reply();
+		reply.title("Dispatcher Auslastung");
+		reply.field("Aktive Channel", String.valueOf(stats.lanes()));
+		reply.field("Wartende Nachrichten", String.valueOf(stats.queued()));
+		reply.field("Längste Warteschlange", String.valueOf(stats.deepestLane()));
+		reply.field("Verarbeitet", String.valueOf(stats.executed()));
+		reply.field("Verworfen", String.valueOf(stats.dropped()));
+		reply.field("Latenz (Durchschnitt)", stats.averageLatency() + " ms");
+		reply.field("Latenz (Maximum)", stats.maximumLatency() + " ms");
+		
+		// irc has no fields, so we provide a condensed version
+		reply.replace().appendEscape("%d Channel aktiv, %d Nachrichten wartend (maximal %d in einem Channel), %d verarbeitet, %d verworfen, Latenz %d ms (maximal %d ms)".formatted(
+				stats.lanes(), stats.queued(), stats.deepestLane(), stats.executed(), stats.dropped(), stats.averageLatency(), stats.maximumLatency()));
+		
+		reply.send();
+	}
+}
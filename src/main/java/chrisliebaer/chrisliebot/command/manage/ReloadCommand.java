@@ -0,0 +1,33 @@
+package chrisliebaer.chrisliebot.command.manage;
+
+import chrisliebaer.chrisliebot.command.ChrislieListener;
+import chrisliebaer.chrisliebot.command.ListenerReference;
+import chrisliebaer.chrisliebot.config.ChrislieContext;
+import chrisliebaer.chrisliebot.util.ErrorOutputBuilder;
+
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+
+public class ReloadCommand implements ChrislieListener.Command {
+	
+	@Override
+	public Optional<String> help(ChrislieContext ctx, ListenerReference ref) throws ListenerException {
+		return Optional.of("Lädt die Konfiguration im Hintergrund neu, ohne die Verbindungen zu trennen.");
+	}
+	
+	@Override
+	public void execute(Invocation invc) throws ListenerException {
+		invc.reply("Konfiguration wird neu geladen.");
+		
+		// reload has to wait for this invocation to leave the dispatcher, so we can't block here
+		invc.bot().managment().reload().whenComplete((v, t) -> invc.exceptionHandler().unwrap(() -> {
+			if (t == null) {
+				invc.reply("Konfiguration wurde neu geladen.");
+				return;
+			}
+			
+			var cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+			ErrorOutputBuilder.throwable(cause).write(invc).send();
+		}));
+	}
+}
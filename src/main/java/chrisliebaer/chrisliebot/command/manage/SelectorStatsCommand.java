@@ -0,0 +1,77 @@
+package chrisliebaer.chrisliebot.command.manage;
+
+import chrisliebaer.chrisliebot.command.ChrislieListener;
+import chrisliebaer.chrisliebot.command.ListenerReference;
+import chrisliebaer.chrisliebot.config.ChrislieContext;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.StringJoiner;
+
+public class SelectorStatsCommand implements ChrislieListener.Command {
+	
+	private static final int MAX_ENTRIES = 10;
+	
+	@Override
+	public Optional<String> help(ChrislieContext ctx, ListenerReference ref) throws ListenerException {
+		return Optional.of("Zeigt an, wie teuer und wie selektiv die Selektoren der Konfiguration sind.");
+	}
+	
+	@Override
+	public void execute(Invocation invc) throws ListenerException {
+		var stats = invc.bot().managment().selectorStats();
+		if (stats.isEmpty()) {
+			invc.reply("Adaptive Selektoren sind deaktiviert.");
+			return;
+		}
+		
+		// selectors of the same type behave similar, so we aggregate them
+		Map<String, Aggregate> aggregates = new HashMap<>();
+		for (var s : stats) {
+			var aggregate = aggregates.computeIfAbsent(s.selector().getClass().getSimpleName(), Aggregate::new);
+			aggregate.samples += s.samples();
+			aggregate.passed += s.passed();
+			aggregate.totalTime += s.totalTime();
+		}
+		
+		var sorted = new ArrayList<>(aggregates.values());
+		sorted.sort(Comparator.comparingLong((Aggregate a) -> a.totalTime).reversed());
+		
+		var reply = invc.reply();
+		reply.title("Selektor Statistik");
+		var joiner = new StringJoiner(", ");
+		for (var aggregate : sorted.subList(0, Math.min(MAX_ENTRIES, sorted.size()))) {
+			var line = aggregate.describe();
+			reply.field(aggregate.name, line);
+			joiner.add(aggregate.name + ": " + line);
+		}
+		
+		// irc has no fields, so we provide a condensed version
+		reply.replace().appendEscape(joiner.toString());
+		
+		reply.send();
+	}
+	
+	private static final class Aggregate {
+		
+		private final String name;
+		private long samples;
+		private long passed;
+		private long totalTime; // in nanoseconds
+		
+		private Aggregate(String name) {
+			this.name = name;
+		}
+		
+		private String describe() {
+			if (samples == 0)
+				return "keine Stichproben";
+			
+			return "%d Stichproben, %.1f%% bestanden, %.1f µs".formatted(
+					samples, 100.0 * passed / samples, totalTime / 1000.0 / samples);
+		}
+	}
+}
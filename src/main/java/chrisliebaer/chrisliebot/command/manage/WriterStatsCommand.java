@@ -0,0 +1,56 @@
+package chrisliebaer.chrisliebot.command.manage;
+
+import chrisliebaer.chrisliebot.abstraction.discord.DiscordService;
+import chrisliebaer.chrisliebot.abstraction.irc.IrcService;
+import chrisliebaer.chrisliebot.command.ChrislieListener;
+import chrisliebaer.chrisliebot.command.ListenerReference;
+import chrisliebaer.chrisliebot.config.ChrislieContext;
+
+import java.util.Optional;
+
+public class WriterStatsCommand implements ChrislieListener.Command {
+	
+	@Override
+	public Optional<String> help(ChrislieContext ctx, ListenerReference ref) throws ListenerException {
+		return Optional.of("Zeigt an, wie viele Einträge dieses Dienstes auf das Schreiben in die Datenbank warten und wie viele verworfen wurden.");
+	}
+	
+	@Override
+	public void execute(Invocation invc) throws ListenerException {
+		String name;
+		long backlog, dropped, blocked;
+		if (invc.service() instanceof IrcService) {
+			var maybeLogger = ((IrcService) invc.service()).chatLogger();
+			if (maybeLogger.isEmpty()) {
+				invc.reply("Der Chatverlauf wird in diesem Netzwerk nicht aufgezeichnet.");
+				return;
+			}
+			
+			var logger = maybeLogger.get();
+			name = "Chatverlauf";
+			backlog = logger.backlog();
+			dropped = logger.dropped();
+			blocked = logger.blocked();
+		} else if (invc.service() instanceof DiscordService) {
+			var writer = ((DiscordService) invc.service()).traceWriter();
+			name = "Nachrichtenverlauf";
+			backlog = writer.backlog();
+			dropped = writer.dropped();
+			blocked = writer.blocked();
+		} else {
+			invc.reply("Dieser Dienst schreibt nichts in die Datenbank.");
+			return;
+		}
+		
+		var reply = invc.reply();
+		reply.title(name);
+		reply.field("Wartend", String.valueOf(backlog));
+		reply.field("Verworfen", String.valueOf(dropped));
+		reply.field("Blockiert", String.valueOf(blocked));
+		
+		// irc has no fields, so we provide a condensed version
+		reply.replace().appendEscape("%s: %d wartend, %d verworfen, %d mal blockiert".formatted(name, backlog, dropped, blocked));
+		
+		reply.send();
+	}
+}
@@ -10,6 +10,7 @@ import chrisliebaer.chrisliebot.command.mensa.api.MensaApiMeta;
 import chrisliebaer.chrisliebot.command.mensa.api.MensaApiService;
 import chrisliebaer.chrisliebot.config.ChrislieContext;
 import chrisliebaer.chrisliebot.config.ContextResolver;
+import chrisliebaer.chrisliebot.config.flex.CommonFlex;
 import chrisliebaer.chrisliebot.util.BetterScheduledService;
 import chrisliebaer.chrisliebot.util.ErrorOutputBuilder;
 import chrisliebaer.chrisliebot.util.GsonValidator;
@@ -52,16 +53,16 @@ import java.util.concurrent.TimeUnit;
 public class MensaCommand implements ChrislieListener.Command {
 	
 	// symbols to prefix various kinds of meals
-	private static final String FLEX_FISH_CODE = "mensa.symbol.fish";
-	private static final String FLEX_MEAT_CODE = "mensa.symbol.meat";
-	private static final String FLEX_VEG_CODE = "mensa.symbol.veg";
+	private static final CommonFlex.Key<String> FLEX_FISH_CODE = CommonFlex.key("mensa.symbol.fish", String.class, "");
+	private static final CommonFlex.Key<String> FLEX_MEAT_CODE = CommonFlex.key("mensa.symbol.meat", String.class, "");
+	private static final CommonFlex.Key<String> FLEX_VEG_CODE = CommonFlex.key("mensa.symbol.veg", String.class, "");
 	
-	private static final String FLEX_DEFAULT_MENSA = "mensa.default"; // default mensa if no mensa is given
-	private static final String FLEX_FILTER = "mensa.filter"; // array with lines in form of "$mensa.$line|*" to filter
+	private static final CommonFlex.Key<String> FLEX_DEFAULT_MENSA = CommonFlex.key("mensa.default", String.class); // default mensa if no mensa is given
+	private static final CommonFlex.Key<Set<String>> FLEX_FILTER = CommonFlex.key("mensa.filter", new TypeToken<Set<String>>() {}.getType(), Set.of()); // array with lines in form of "$mensa.$line|*" to filter
 	
-	private static final String FLEX_CUTOFF = "mensa.cutoff"; // price below which meals are not displayed
-	private static final String FLEX_ALLOW_LIST = "mensa.allowList"; // enables or disables `list` subdommand
-	private static final String FLEX_ALLOW_PICK = "mensa.allowPick"; // enables or disables picking a mensa by name
+	private static final CommonFlex.Key<Double> FLEX_CUTOFF = CommonFlex.key("mensa.cutoff", Double.class); // price below which meals are not displayed
+	private static final CommonFlex.Key<Boolean> FLEX_ALLOW_LIST = CommonFlex.key("mensa.allowList", Boolean.class, false); // enables or disables `list` subdommand
+	private static final CommonFlex.Key<Boolean> FLEX_ALLOW_PICK = CommonFlex.key("mensa.allowPick", Boolean.class, false); // enables or disables picking a mensa by name
 	
 	private static final DecimalFormat PRICE_FORMAT = new DecimalFormat("0.00");
 	
@@ -132,7 +133,7 @@ public class MensaCommand implements ChrislieListener.Command {
 		
 		// the parameters to gather for invocation
 		long timestamp = System.currentTimeMillis();
-		String mensaName = flex.getStringOrFail(FLEX_DEFAULT_MENSA);
+		String mensaName = flex.getOrFail(FLEX_DEFAULT_MENSA);
 		
 		if (!args.isEmpty() && !args.get(0).isBlank()) { // argument stack is not empty
 			if ("list".equalsIgnoreCase(args.get(0))) { // check if first argument matches "list"
@@ -212,20 +213,15 @@ public class MensaCommand implements ChrislieListener.Command {
 				.newLine();
 		
 		// load symbols used to mark food
-		var symbolFish = flex.getString(FLEX_FISH_CODE).orElse("");
-		var symbolmeat = flex.getString(FLEX_MEAT_CODE).orElse("");
-		var symbolVeg = flex.getString(FLEX_VEG_CODE).orElse("");
+		var symbolFish = flex.getOrFail(FLEX_FISH_CODE);
+		var symbolmeat = flex.getOrFail(FLEX_MEAT_CODE);
+		var symbolVeg = flex.getOrFail(FLEX_VEG_CODE);
 		
 		// load ignore list
-		Set<String> ignoreLines;
-		//noinspection UnnecessaryCodeBlock
-		{ // scope fuckery to hide type fuckery, the perfect crime
-			Optional<Set<String>> maybeIgnoreLines = flex.get(FLEX_FILTER, new TypeToken<Set<String>>() {}.getType());
-			ignoreLines = maybeIgnoreLines.orElse(Set.of());
-		}
+		var ignoreLines = flex.getOrFail(FLEX_FILTER);
 		
 		// load cuttoff price
-		var cutoff = flex.getDoubleorFail(FLEX_CUTOFF);
+		var cutoff = flex.getOrFail(FLEX_CUTOFF);
 		
 		for (MensaLine line : day.lines()) {
 			// skip lines on ignore list
@@ -42,8 +42,7 @@ public class QwantSearchCommand implements ChrislieListener.Command {
 	private static final ErrorOutputBuilder ERROR_EOF = ErrorOutputBuilder.generic("Das waren alle Ergebnisse. Mehr hab ich nicht.");
 	private static final ErrorOutputBuilder ERROR_NO_MATCH = ErrorOutputBuilder.generic("Deine Suche ergab leider keine Treffer.");
 	
-	private static final CommonFlex.Provider<QwantService.SafeSearch> FLEX_SAFE_SEARCH = CommonFlex.provider(
-			(flex, key) -> flex.get(key, QwantService.SafeSearch.class), "qwant.safeSearch");
+	private static final CommonFlex.Key<QwantService.SafeSearch> FLEX_SAFE_SEARCH = CommonFlex.key("qwant.safeSearch", QwantService.SafeSearch.class);
 	
 	private static final int RATE_LIMIT_CODE = 429;
 	
@@ -6,7 +6,6 @@ import chrisliebaer.chrisliebot.abstraction.ChrislieOutput;
 import chrisliebaer.chrisliebot.abstraction.LimiterConfig;
 import chrisliebaer.chrisliebot.command.ChrislieListener;
 import chrisliebaer.chrisliebot.config.ContextResolver;
-import chrisliebaer.chrisliebot.config.scope.Selector;
 import chrisliebaer.chrisliebot.util.BetterScheduledService;
 import chrisliebaer.chrisliebot.util.GsonValidator;
 import com.google.common.util.concurrent.AbstractScheduledService;
@@ -87,14 +86,14 @@ public class RedditListener implements ChrislieListener {
 				return;
 			}
 			
-			var ctx = resolver.resolve(Selector::check, maybeChannel.get());
+			var ctx = resolver.resolve(maybeChannel.get());
 			var maybeRef = ctx.listener(this);
 			if (maybeRef.isEmpty()) {
 				log.warn("listener not present in channel for subreddit: {}", cfg.subreddit);
 				return;
 			}
 			var ref = maybeRef.get();
-			var limiterConf = LimiterConfig.of(ref.flexConf());
+			var limiterConf = LimiterConfig.of(ref.flexConf()).priority(LimiterConfig.Priority.FEED);
 			
 			// reverse so we post in correct order
 			Collections.reverse(feed.data().children());
@@ -21,8 +21,15 @@ public class SedListener implements ChrislieListener {
 	
 	private static final Pattern SED_PATTERN = Pattern.compile("^s/(?<search>([^/]|\\\\/)+)/(?<replace>([^/]|\\\\/)*)/(?<flags>[g]*)$");
 	
+	private static final Interest INTEREST = Interest.builder().directMessage(false).nonCommandOnly(true).build();
+	
 	private Cache<ChannelIdentifier, CircularFifoQueue<StoredMessage>> backlog = CacheBuilder.newBuilder().build();
 	
+	@Override
+	public Interest interest() {
+		return INTEREST;
+	}
+	
 	@Override
 	public void onMessage(ListenerMessage msg, boolean isCommand) throws ListenerException {
 		var m = msg.msg();
@@ -37,6 +37,11 @@ public class SpecialChannel implements ChrislieListener {
 		cfg = gson.fromJson(json, Config.class);
 	}
 	
+	@Override
+	public Interest interest() {
+		return Interest.builder().service(DiscordService.class).build();
+	}
+	
 	@Override
 	public void init(Chrisliebot bot, ContextResolver resolver) throws ListenerException {
 		this.bot = bot;
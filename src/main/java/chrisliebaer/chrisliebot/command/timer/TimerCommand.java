@@ -16,7 +16,6 @@ import chrisliebaer.chrisliebot.config.ChrislieContext;
 import chrisliebaer.chrisliebot.config.ContextResolver;
 import chrisliebaer.chrisliebot.config.flex.CommonFlex;
 import chrisliebaer.chrisliebot.config.flex.FlexConf;
-import chrisliebaer.chrisliebot.config.scope.Selector;
 import chrisliebaer.chrisliebot.util.ErrorOutputBuilder;
 import chrisliebaer.chrisliebot.util.GsonValidator;
 import com.google.gson.JsonElement;
@@ -564,14 +563,14 @@ public class TimerCommand implements ChrislieListener.Command {
 			}
 		}
 		var channel = maybeChannel.get();
-		var maybeRef = resolver.resolve(Selector::check, channel).listener(this);
+		var maybeRef = resolver.resolve(channel).listener(this);
 		
 		if (maybeRef.isEmpty()) {
 			log.warn("missing ref in channel {} for delivery of timer {}", channel.displayName(), timerInfo);
 			return;
 		}
 		var ref = maybeRef.get();
-		var out = channel.output(LimiterConfig.of(ref.flexConf()));
+		var out = channel.output(LimiterConfig.of(ref.flexConf()).priority(LimiterConfig.Priority.TIMER));
 		
 		out.title("Es ist soweit");
 		var plain = out.plain().append(maybeUser.get().mention());
@@ -5,7 +5,6 @@ import chrisliebaer.chrisliebot.abstraction.ChrislieIdentifier;
 import chrisliebaer.chrisliebot.abstraction.LimiterConfig;
 import chrisliebaer.chrisliebot.command.ChrislieListener;
 import chrisliebaer.chrisliebot.config.ContextResolver;
-import chrisliebaer.chrisliebot.config.scope.Selector;
 import chrisliebaer.chrisliebot.util.GsonValidator;
 import com.google.common.collect.Lists;
 import com.google.gson.JsonElement;
@@ -130,7 +129,7 @@ public class TwitterTimelineNotifier implements ChrislieListener {
 			return;
 		}
 		
-		var ctx = resolver.resolve(Selector::check, maybeChannel.get());
+		var ctx = resolver.resolve(maybeChannel.get());
 		var maybeRef = ctx.listener(this);
 		if (maybeRef.isEmpty()) {
 			log.warn("no listener ref found in channel for subscrition {}", sub);
@@ -139,7 +138,7 @@ public class TwitterTimelineNotifier implements ChrislieListener {
 		
 		for (var tweet : tweets) {
 			var user = tweet.getUser();
-			var out = maybeChannel.get().output(LimiterConfig.of(maybeRef.get().flexConf()));
+			var out = maybeChannel.get().output(LimiterConfig.of(maybeRef.get().flexConf()).priority(LimiterConfig.Priority.FEED));
 			
 			// might as well update the account name
 			sub.screenName = user.getScreenName();
@@ -20,6 +20,7 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 @Slf4j
 public class UrlPreviewListener implements ChrislieListener {
@@ -30,6 +31,12 @@ public class UrlPreviewListener implements ChrislieListener {
 	private static final long URL_EXPIRE_TIME = 600000; // 10 minutes
 	private static final int URL_MAX_HISTORY = 50; // remember no more than 50 urls
 	
+	// link extractor only finds links with scheme or www prefix, everything else can be skipped
+	private static final Interest INTEREST = Interest.builder()
+			.nonCommandOnly(true)
+			.pattern(Pattern.compile("://|www\\.", Pattern.CASE_INSENSITIVE))
+			.build();
+	
 	private Config cfg;
 	
 	/* TODO upgrade to v3 architecture
@@ -58,6 +65,11 @@ public class UrlPreviewListener implements ChrislieListener {
 		cfg = gson.fromJson(json, Config.class);
 	}
 	
+	@Override
+	public Interest interest() {
+		return INTEREST;
+	}
+	
 	@Override
 	public void onMessage(ListenerMessage msg, boolean isCommand) throws ListenerException {
 		if (msg.msg().message().startsWith(" ") || isCommand) // TODO: is this good?
@@ -0,0 +1,49 @@
+package chrisliebaer.chrisliebot.config;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Prefix tree of all aliases in a context. Allows the dispatcher to reject messages that can't possibly start with a
+ * known alias without running the dispatcher pattern on them.
+ */
+public final class AliasTrie {
+	
+	private final Node root = new Node();
+	
+	public AliasTrie(Collection<String> aliases) {
+		for (var alias : aliases) {
+			var node = root;
+			for (int i = 0; i < alias.length(); i++)
+				node = node.children.computeIfAbsent(alias.charAt(i), c -> new Node());
+			node.terminal = true;
+		}
+	}
+	
+	/**
+	 * Checks if any alias is a prefix of the given string at the given offset. Since aliases are always lowercase, the
+	 * given string is compared case insensitive.
+	 *
+	 * @param s      The string to check.
+	 * @param offset The index at which the alias is expected to start.
+	 * @return {@code true} if at least one alias starts at the given offset.
+	 */
+	public boolean matchesAt(CharSequence s, int offset) {
+		var node = root;
+		for (int i = offset; i < s.length(); i++) {
+			node = node.children.get(Character.toLowerCase(s.charAt(i)));
+			if (node == null)
+				return false;
+			if (node.terminal)
+				return true;
+		}
+		return false;
+	}
+	
+	private static final class Node {
+		
+		private final Map<Character, Node> children = new HashMap<>(4);
+		private boolean terminal;
+	}
+}
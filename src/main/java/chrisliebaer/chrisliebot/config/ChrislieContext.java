@@ -18,7 +18,8 @@ import java.util.Set;
 
 /**
  * A context contains the resulting set of commands, listeners and flex config values after checking an entity against
- * all scopes.
+ * all scopes. Contexts that are returned by a {@link ContextResolver} are shared between threads and must not be
+ * modified.
  */
 @Slf4j
 public class ChrislieContext {
@@ -28,6 +29,8 @@ public class ChrislieContext {
 	
 	private Set<ChrislieGroup> included = Collections.newSetFromMap(new IdentityHashMap<>());
 	
+	private volatile AliasTrie aliasTrie; // lazily created, since not every context is used for command parsing
+	
 	@Getter private FlexConf flexConf = new FlexConf();
 	
 	/**
@@ -40,17 +43,24 @@ public class ChrislieContext {
 	}
 	
 	public void addGroups(Collection<ChrislieGroup> groups) {
-		groups.forEach(this::addGroup);
+		groups.forEach(this::includeGroup);
+		updateAliases();
 	}
 	
 	public void addGroup(ChrislieGroup group) {
+		includeGroup(group);
+		updateAliases();
+	}
+	
+	// alias map is only rebuild by public methods, since it only depends on the final state of all listener contexts
+	private void includeGroup(ChrislieGroup group) {
 		if (included.contains(group)) {
 			log.trace("ignoring include of group `{}` since it was already included before", group.name());
 			return;
 		}
 		
 		// included groups go first
-		group.includes().forEach(this::addGroup);
+		group.includes().forEach(this::includeGroup);
 		
 		log.trace("adding group `{}`", group.name());
 		
@@ -69,13 +79,12 @@ public class ChrislieContext {
 			ctx.apply(e.getValue());
 		}
 		
-		updateAliases();
-		
 		// remember included group
 		included.add(group);
 	}
 	
 	private void updateAliases() {
+		aliasTrie = null;
 		aliases.clear();
 		for (ListenerContext ctx : listeners.values()) {
 			for (AliasSet.Alias alias : ctx.aliasSet().get().values()) {
@@ -86,6 +95,20 @@ public class ChrislieContext {
 		}
 	}
 	
+	/**
+	 * Freezes the flex confs of this context and all of it's listeners. Should be called once all groups have been
+	 * added, since the frozen flex confs will not pick up groups that are added later on.
+	 *
+	 * @return This context for method chaining.
+	 * @see FlexConf#freeze()
+	 */
+	public ChrislieContext freeze() {
+		// listeners use the context flex conf as fallback, so freezing it first allows them to reuse the result
+		flexConf.freeze();
+		listeners.values().forEach(ctx -> ctx.flexConf().freeze());
+		return this;
+	}
+	
 	public Optional<ListenerReference> listener(String name) {
 		return Optional.ofNullable(listeners.get(name));
 	}
@@ -98,6 +121,17 @@ public class ChrislieContext {
 		return Optional.ofNullable(aliases.get(alias));
 	}
 	
+	/**
+	 * @return A prefix tree of all aliases in this context.
+	 */
+	public AliasTrie aliasTrie() {
+		// building the trie twice in a race is harmless
+		var trie = aliasTrie;
+		if (trie == null)
+			aliasTrie = trie = new AliasTrie(aliases.keySet());
+		return trie;
+	}
+	
 	public Optional<? extends ListenerReference> listener(ChrislieListener listener) throws NoSuchElementException {
 		return listeners.values().stream().filter(ctx -> ctx.envelope().listener() == listener).findAny();
 	}
@@ -1,12 +1,25 @@
 package chrisliebaer.chrisliebot.config;
 
+import chrisliebaer.chrisliebot.abstraction.ChrislieChannel;
+import chrisliebaer.chrisliebot.abstraction.ChrislieGuild;
+import chrisliebaer.chrisliebot.abstraction.ChrislieIdentifier.OriginIdentifier;
+import chrisliebaer.chrisliebot.abstraction.ChrislieMessage;
+import chrisliebaer.chrisliebot.abstraction.ChrislieService;
+import chrisliebaer.chrisliebot.abstraction.ChrislieUser;
 import chrisliebaer.chrisliebot.command.ChrislieListener;
 import chrisliebaer.chrisliebot.command.ListenerReference;
 import chrisliebaer.chrisliebot.config.scope.ScopeMapping;
 import chrisliebaer.chrisliebot.config.scope.Selector;
+import chrisliebaer.chrisliebot.config.scope.selector.CombinationSelector;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -14,16 +27,45 @@ import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
+@Slf4j
 public class ContextResolver {
 	
 	@Getter private List<ScopeMapping> mappings;
 	@Getter private Map<String, ChrislieGroup> groups;
 	@Getter private Set<ChrislieListener.Envelope> envelopes;
 	
+	// narrows down the mappings that have to be checked for a given origin
+	private final MappingIndex index;
+	
+	// every combination of selectors that reorders itself based on measurements, empty if disabled
+	private final List<CombinationSelector> adaptiveSelectors = new ArrayList<>();
+	
+	// mappings that depend on the message content and have to be checked for every single message
+	private final BitSet uncacheableMappings = new BitSet();
+	private final BitSet cacheableMappings = new BitSet();
+	
+	// matched mappings of recently seen origins (excluding uncacheable mappings), null if disabled
+	private final Cache<OriginIdentifier, BitSet> originCache;
+	
+	// most contexts are made of the same few combinations of mappings, so we only build them once, null if disabled
+	private final Cache<BitSet, ChrislieContext> internCache;
+	
 	public ContextResolver(@NonNull List<ScopeMapping> mappings) {
+		this(mappings, new CacheConfig());
+	}
+	
+	public ContextResolver(@NonNull List<ScopeMapping> mappings, @NonNull CacheConfig cacheConfig) {
+		this(mappings, cacheConfig, new CombinationSelector.AdaptiveConfig());
+	}
+	
+	public ContextResolver(@NonNull List<ScopeMapping> mappings,
+						   @NonNull CacheConfig cacheConfig,
+						   @NonNull CombinationSelector.AdaptiveConfig adaptiveConfig) {
 		this.mappings = Collections.unmodifiableList(mappings);
 		
 		// extract all groups from mapping (remember that group names are unique)
@@ -46,19 +88,176 @@ public class ContextResolver {
 				.map(ListenerReference::envelope)
 				.forEach(envelopes::add);
 		envelopes = Collections.unmodifiableSet(envelopes);
+		
+		for (var mapping : mappings)
+			mapping.adaptive(adaptiveConfig, adaptiveSelectors);
+		index = new MappingIndex(mappings, adaptiveConfig, adaptiveSelectors);
+		for (int i = 0; i < mappings.size(); i++)
+			(mappings.get(i).cacheable() ? cacheableMappings : uncacheableMappings).set(i);
+		if (!uncacheableMappings.isEmpty())
+			log.debug("{} mappings depend on message content and will be checked on every message", uncacheableMappings.cardinality());
+		
+		originCache = cacheConfig.enabled ? CacheBuilder.newBuilder()
+				.maximumSize(cacheConfig.maximumSize)
+				.expireAfterWrite(cacheConfig.ttl, TimeUnit.SECONDS)
+				.build() : null;
+		
+		internCache = cacheConfig.intern ? CacheBuilder.newBuilder()
+				.maximumSize(cacheConfig.maximumInterned)
+				.build() : null;
 	}
 	
 	public <T> ChrislieContext resolve(BiFunction<Selector, T, Boolean> lookup, T t) {
-		ChrislieContext ctx = new ChrislieContext();
+		var all = new BitSet(mappings.size());
+		all.set(0, mappings.size());
+		return context(match(lookup, t, all));
+	}
+	
+	/**
+	 * Resolves the context of the given message. Unlike {@link #resolve(BiFunction, Object)}, this method only checks
+	 * mappings that could apply to the origin of the message and will reuse the context of previous messages with the
+	 * same origin, if the context cache is enabled.
+	 *
+	 * @param m The message to resolve the context for.
+	 * @return The context of the given message. Must not be modified since it's shared with other messages.
+	 */
+	public ChrislieContext resolve(@NonNull ChrislieMessage m) {
+		return resolve(OriginIdentifier.of(m), Selector::check, m);
+	}
+	
+	/**
+	 * @see #resolve(ChrislieMessage)
+	 */
+	public ChrislieContext resolve(@NonNull ChrislieChannel channel) {
+		return resolve(OriginIdentifier.of(channel), Selector::check, channel);
+	}
+	
+	/**
+	 * @see #resolve(ChrislieMessage)
+	 */
+	public ChrislieContext resolve(@NonNull ChrislieGuild guild) {
+		return resolve(OriginIdentifier.of(guild), Selector::check, guild);
+	}
+	
+	private <T> ChrislieContext resolve(OriginIdentifier origin, BiFunction<Selector, T, Boolean> lookup, T t) {
+		var candidates = index.candidates(origin);
+		if (originCache == null)
+			return context(index.match(lookup, t, candidates));
+		
+		var matched = originCache.getIfPresent(origin);
+		if (matched == null) {
+			// computing the same bitset twice in a race is cheaper than locking the cache
+			var cacheable = (BitSet) candidates.clone();
+			cacheable.and(cacheableMappings);
+			matched = index.match(lookup, t, cacheable);
+			originCache.put(origin, matched);
+		}
 		
-		for (ScopeMapping mapping : mappings)
-			if (mapping.checkAll(lookup, t))
-				ctx.addGroups(mapping.groups());
+		// cached bitsets are shared, so we need a copy before adding mappings that only match this message
+		candidates.and(uncacheableMappings);
+		if (!candidates.isEmpty()) {
+			var uncached = index.match(lookup, t, candidates);
+			if (!uncached.isEmpty()) {
+				uncached.or(matched);
+				matched = uncached;
+			}
+		}
 		
+		return context(matched);
+	}
+	
+	// returns a set containing the index of every candidate mapping that matched
+	private <T> BitSet match(BiFunction<Selector, T, Boolean> lookup, T t, BitSet candidates) {
+		var matched = new BitSet(mappings.size());
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			if (mappings.get(i).checkAll(lookup, t))
+				matched.set(i);
+		}
+		return matched;
+	}
+	
+	// the given bitset must not be modified after calling this method, since it might be used as a key
+	private ChrislieContext context(BitSet matched) {
+		if (internCache == null)
+			return build(matched);
+		
+		var ctx = internCache.getIfPresent(matched);
+		if (ctx == null) {
+			ctx = build(matched);
+			internCache.put(matched, ctx);
+		}
 		return ctx;
 	}
 	
+	private ChrislieContext build(BitSet matched) {
+		List<ChrislieGroup> groups = new ArrayList<>();
+		for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1))
+			groups.addAll(mappings.get(i).groups());
+		
+		// adding all groups at once allows the context to only build it's alias map once
+		return new ChrislieContext(groups).freeze();
+	}
+	
+	/**
+	 * @return The measurements of all selectors that are part of an adaptive combination. Empty if adaptive ordering is
+	 * disabled.
+	 */
+	public List<CombinationSelector.SelectorStats> selectorStats() {
+		List<CombinationSelector.SelectorStats> stats = new ArrayList<>();
+		for (var selector : adaptiveSelectors)
+			stats.addAll(selector.selectorStats());
+		return stats;
+	}
+	
+	/**
+	 * Drops all cached origins. Services should call this if they can't narrow down the affected entities.
+	 */
+	public void invalidate() {
+		if (originCache != null)
+			originCache.invalidateAll();
+	}
+	
+	public void invalidate(@NonNull ChrislieService service) {
+		invalidate(origin -> origin.service().equals(service.identifier()));
+	}
+	
+	public void invalidate(@NonNull ChrislieGuild guild) {
+		var service = guild.service().identifier();
+		invalidate(origin -> origin.service().equals(service) && guild.identifier().equals(origin.guild()));
+	}
+	
+	public void invalidate(@NonNull ChrislieChannel channel) {
+		var service = channel.service().identifier();
+		invalidate(origin -> origin.service().equals(service) && channel.identifier().equals(origin.channel()));
+	}
+	
+	public void invalidate(@NonNull ChrislieUser user) {
+		var service = user.service().identifier();
+		invalidate(origin -> origin.service().equals(service) && user.identifier().equals(origin.user()));
+	}
+	
+	private void invalidate(Predicate<OriginIdentifier> predicate) {
+		if (originCache != null)
+			originCache.asMap().keySet().removeIf(predicate);
+	}
+	
 	private static Stream<ChrislieGroup> flattenGroups(ChrislieGroup group) {
 		return Stream.concat(Stream.of(group), group.includes().stream().flatMap(ContextResolver::flattenGroups));
 	}
+	
+	/**
+	 * Controls the caching of resolved contexts. Cached origins are dropped once they exceed their time to live, even
+	 * if no service reported a change, since not every change can be observed by services. Interned contexts never
+	 * become stale, since they only depend on the matched mappings.
+	 */
+	@ToString
+	public static class CacheConfig {
+		
+		private boolean enabled = true;
+		private long maximumSize = 10000;
+		private long ttl = 300; // in seconds
+		
+		private boolean intern = true;
+		private long maximumInterned = 1000;
+	}
 }
@@ -2,6 +2,7 @@ package chrisliebaer.chrisliebot.config;
 
 import chrisliebaer.chrisliebot.abstraction.discord.DiscordBootstrap;
 import chrisliebaer.chrisliebot.abstraction.irc.IrcBootstrap;
+import chrisliebaer.chrisliebot.util.PartitionMaintenance;
 import lombok.Getter;
 import lombok.ToString;
 
@@ -13,6 +14,7 @@ import java.util.Set;
 public class CoreConfig {
 	
 	@Getter private String databasePool;
+	@Getter private PartitionMaintenance.Config partitioning = new PartitionMaintenance.Config();
 	
 	@Getter private Map<String, IrcBootstrap> irc = Map.of();
 	@Getter private Map<String, DiscordBootstrap> discord = Map.of();
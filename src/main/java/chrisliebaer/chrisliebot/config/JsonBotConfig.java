@@ -1,7 +1,11 @@
 package chrisliebaer.chrisliebot.config;
 
+import chrisliebaer.chrisliebot.C;
+import chrisliebaer.chrisliebot.abstraction.LimiterConfig;
+import chrisliebaer.chrisliebot.command.ChrislieDispatcher;
 import chrisliebaer.chrisliebot.command.ChrislieListener;
 import chrisliebaer.chrisliebot.command.ListenerReference;
+import chrisliebaer.chrisliebot.config.flex.CommonFlex;
 import chrisliebaer.chrisliebot.config.flex.FlexConf;
 import chrisliebaer.chrisliebot.config.scope.ScopeMapping;
 import chrisliebaer.chrisliebot.config.scope.Selector;
@@ -20,6 +24,7 @@ import chrisliebaer.chrisliebot.util.GsonValidator;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
@@ -29,10 +34,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.lang.String.format;
 
@@ -43,6 +50,10 @@ public class JsonBotConfig { // TODO: replace code validation with java bean val
 	private List<ScopeToGroup> mappings; // contains scope selectors and groups
 	private Map<String, Group> groups; // list of groups with their command anchors
 	
+	@Getter private ContextResolver.CacheConfig contextCache = new ContextResolver.CacheConfig(); // tuning of context resolver
+	@Getter private ChrislieDispatcher.Config dispatcher = new ChrislieDispatcher.Config(); // message hand-off to listeners
+	@Getter private CombinationSelector.AdaptiveConfig adaptiveSelectors = new CombinationSelector.AdaptiveConfig(); // reordering of selectors by measured cost
+	
 	@ToString
 	private static class ScopeToGroup {
 		
@@ -150,6 +161,7 @@ public class JsonBotConfig { // TODO: replace code validation with java bean val
 		private ChrislieListener.Envelope instanceListener(GsonValidator gson, String groupName) throws ChrislieListener.ListenerException {
 			try {
 				Class<? extends ChrislieListener> clazz = Class.forName(this.clazz).asSubclass(ChrislieListener.class);
+				CommonFlex.Key.register(clazz);
 				ChrislieListener listener = clazz.getDeclaredConstructor().newInstance();
 				listener.fromConfig(gson, cfg);
 				return new ChrislieListener.Envelope(listener, format("created as listener `%s` in group `%s`", name, groupName));
@@ -171,10 +183,15 @@ public class JsonBotConfig { // TODO: replace code validation with java bean val
 		
 		private GsonValidator gson;
 		private Map<String, ChrislieGroup> chrislieGroups;
+		private Map<String, Map<String, JsonElement>> flexMaps = new LinkedHashMap<>(); // origin description to flex values
 		
 		public List<ScopeMapping> instanceScopeMapping(GsonValidator gson) throws ConfigInitializeException {
 			this.gson = gson;
 			
+			// keys that are shared by all listeners, keys of listeners are registered as they are instanced
+			CommonFlex.Key.register(FlexConf.class);
+			CommonFlex.Key.register(LimiterConfig.class);
+			
 			chrislieGroups = new HashMap<>();
 			
 			ensureNonNull(groups, "group list is null");
@@ -219,9 +236,31 @@ public class JsonBotConfig { // TODO: replace code validation with java bean val
 			if (!chrislieGroups.isEmpty())
 				log.warn("found orphaned groups that are never used: {}", chrislieGroups.keySet());
 			
+			// all listeners have been instanced at this point, so their keys are registered
+			validateFlex();
+			
 			return scopeMappings;
 		}
 		
+		private void validateFlex() throws ConfigInitializeException {
+			for (var origin : flexMaps.entrySet()) {
+				for (var e : origin.getValue().entrySet()) {
+					// all typed keys are registered at this point, unknown keys are free-form
+					var maybeKey = CommonFlex.Key.registered(e.getKey());
+					if (maybeKey.isEmpty() || e.getValue().isJsonNull())
+						continue;
+					
+					var key = maybeKey.get();
+					try {
+						gson.fromJson(e.getValue(), key.type());
+					} catch (JsonSyntaxException ex) {
+						throw new ConfigInitializeException(format("value `%s` of flex key `%s` in %s is not of type `%s`",
+								e.getValue(), key.name(), origin.getKey(), key.type().getTypeName()), ex);
+					}
+				}
+			}
+		}
+		
 		@SuppressWarnings("EmptyClass")
 		private List<Selector> instanceSelectors(@NonNull JsonElement json) throws Selector.SelectorException {
 			List<JsonSelector> jsonSelectors = gson.fromJson(json, new TypeToken<List<JsonSelector>>() {}.getType());
@@ -295,9 +334,13 @@ public class JsonBotConfig { // TODO: replace code validation with java bean val
 						}
 						
 						nameTracker.add(anchor.name);
+						if (anchor.flex != null)
+							flexMaps.put(format("listener `%s` in group `%s`", anchor.name, name), anchor.flex);
 					}
 					
 					g = new ChrislieGroup(name, instanceFlexConf(gson, group.flex), list, refs);
+					if (group.flex != null)
+						flexMaps.put(format("group `%s`", name), group.flex);
 					
 					// add group to instanced groups as this group is now fully functional
 					chrislieGroups.put(name, g);
@@ -319,12 +362,14 @@ public class JsonBotConfig { // TODO: replace code validation with java bean val
 	
 	@Slf4j
 	@ToString
-	@SuppressWarnings("DuplicatedCode")
 	private static final class JsonFlexConfResolver implements FlexConf.Resolver {
 		
 		private GsonValidator gson;
 		private Map<String, JsonElement> map;
 		
+		// flex values never change after loading, so each key only needs to be parsed once per requested type
+		@ToString.Exclude private final Map<String, Map<Type, Optional<Object>>> memo = new ConcurrentHashMap<>();
+		
 		public static FlexConf of(GsonValidator gson, Map<String, JsonElement> map) {
 			return new FlexConf(new JsonFlexConfResolver(gson, map));
 		}
@@ -334,18 +379,14 @@ public class JsonBotConfig { // TODO: replace code validation with java bean val
 			this.map = map;
 		}
 		
+		@Override
+		public Optional<Set<String>> keys() {
+			return Optional.of(Collections.unmodifiableSet(map.keySet()));
+		}
+		
 		@Override
 		public <V> Optional<V> get(String key, Class<V> clazz) {
-			var val = map.get(key);
-			if (val == null)
-				return Optional.empty();
-			
-			try {
-				return Optional.ofNullable(gson.fromJson(val, clazz));
-			} catch (JsonSyntaxException e) {
-				log.warn("failed to get key `{}` from flexconf as `{}` with json representation `{}` flexconf is: {}", key, clazz, val, this, e);
-				return Optional.empty();
-			}
+			return C.unsafeCast(get(key, (Type) clazz));
 		}
 		
 		@Override
@@ -354,7 +395,21 @@ public class JsonBotConfig { // TODO: replace code validation with java bean val
 			if (val == null)
 				return Optional.empty();
 			
+			var values = memo.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+			var value = values.get(type);
+			if (value == null) {
+				// parsing the same value twice in a race is harmless
+				value = parse(key, val, type);
+				values.put(type, value);
+			}
+			return value;
+		}
+		
+		private Optional<Object> parse(String key, JsonElement val, Type type) {
 			try {
+				// class overload takes care of boxing primitive types
+				if (type instanceof Class)
+					return Optional.ofNullable(gson.fromJson(val, (Class<?>) type));
 				return Optional.ofNullable(gson.fromJson(val, type));
 			} catch (JsonSyntaxException e) {
 				log.warn("failed to get key `{}` from flexconf as `{}` with json representation `{}` flexconf is: {}", key, type, val, this, e);
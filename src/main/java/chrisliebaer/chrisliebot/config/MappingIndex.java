@@ -0,0 +1,125 @@
+package chrisliebaer.chrisliebot.config;
+
+import chrisliebaer.chrisliebot.abstraction.ChrislieIdentifier.OriginIdentifier;
+import chrisliebaer.chrisliebot.config.scope.ScopeMapping;
+import chrisliebaer.chrisliebot.config.scope.Selector;
+import chrisliebaer.chrisliebot.config.scope.selector.ChannelSelector;
+import chrisliebaer.chrisliebot.config.scope.selector.CombinationSelector;
+import chrisliebaer.chrisliebot.config.scope.selector.GuildSelector;
+import chrisliebaer.chrisliebot.config.scope.selector.ServiceIdentifierSelector;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Most mappings are bound to a specific service, guild or channel by simple equality selectors. This index compiles
+ * these selectors into a lookup table (service → guild → channel), so only mappings that could possibly match a given
+ * origin have to be checked. All other selectors of a mapping stay in place and are evaluated as usual.
+ */
+@Slf4j
+class MappingIndex {
+	
+	// null keys act as wildcard for mappings that don't restrict the respective level
+	private final Map<String, Map<String, Map<String, BitSet>>> index = new HashMap<>();
+	
+	// remaining selectors of each mapping that couldn't be indexed, null if nothing is left to check
+	private final CombinationSelector[] residuals;
+	
+	public MappingIndex(List<ScopeMapping> mappings, CombinationSelector.AdaptiveConfig adaptiveConfig, Collection<CombinationSelector> adaptive) {
+		residuals = new CombinationSelector[mappings.size()];
+		
+		int indexed = 0;
+		for (int i = 0; i < mappings.size(); i++) {
+			String service = null, guild = null, channel = null;
+			List<Selector> residual = new ArrayList<>();
+			
+			// only the first selector of each kind is indexed, additional ones are checked like any other selector
+			for (var selector : mappings.get(i).selectors()) {
+				if (service == null && selector instanceof ServiceIdentifierSelector && ((ServiceIdentifierSelector) selector).identifier() != null)
+					service = ((ServiceIdentifierSelector) selector).identifier();
+				else if (guild == null && selector instanceof GuildSelector)
+					guild = ((GuildSelector) selector).guild().identifier();
+				else if (channel == null && selector instanceof ChannelSelector && ((ChannelSelector) selector).channel() != null)
+					channel = ((ChannelSelector) selector).channel().toLowerCase(Locale.ROOT);
+				else
+					residual.add(selector);
+			}
+			
+			if (service != null || guild != null || channel != null)
+				indexed++;
+			
+			index.computeIfAbsent(service, k -> new HashMap<>())
+					.computeIfAbsent(guild, k -> new HashMap<>())
+					.computeIfAbsent(channel, k -> new BitSet())
+					.set(i);
+			
+			if (!residual.isEmpty()) {
+				residuals[i] = CombinationSelector.and(residual);
+				residuals[i].adaptive(adaptiveConfig, adaptive);
+			}
+		}
+		log.debug("indexed {} of {} mappings by service, guild or channel", indexed, mappings.size());
+	}
+	
+	/**
+	 * @param origin The origin to look up.
+	 * @return A new set containing every mapping whose indexed selectors match the given origin.
+	 */
+	public BitSet candidates(OriginIdentifier origin) {
+		var candidates = new BitSet(residuals.length);
+		var channel = origin.channel() == null ? null : origin.channel().toLowerCase(Locale.ROOT);
+		
+		collect(index.get(origin.service()), origin.guild(), channel, candidates);
+		if (origin.service() != null)
+			collect(index.get(null), origin.guild(), channel, candidates);
+		
+		return candidates;
+	}
+	
+	private static void collect(Map<String, Map<String, BitSet>> byGuild, String guild, String channel, BitSet out) {
+		if (byGuild == null)
+			return;
+		
+		collect(byGuild.get(guild), channel, out);
+		if (guild != null)
+			collect(byGuild.get(null), channel, out);
+	}
+	
+	private static void collect(Map<String, BitSet> byChannel, String channel, BitSet out) {
+		if (byChannel == null)
+			return;
+		
+		var exact = byChannel.get(channel);
+		if (exact != null)
+			out.or(exact);
+		
+		if (channel != null) {
+			var wildcard = byChannel.get(null);
+			if (wildcard != null)
+				out.or(wildcard);
+		}
+	}
+	
+	/**
+	 * Evaluates the remaining selectors of the given candidates. Callers must make sure that the candidates have been
+	 * obtained via {@link #candidates(OriginIdentifier)} for the origin of {@code t}.
+	 *
+	 * @return A new set containing every candidate that matched.
+	 */
+	public <T> BitSet match(BiFunction<Selector, T, Boolean> lookup, T t, BitSet candidates) {
+		var matched = new BitSet(residuals.length);
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			var residual = residuals[i];
+			if (residual == null || residual.checkAll(lookup, t))
+				matched.set(i);
+		}
+		return matched;
+	}
+}
@@ -1,13 +1,20 @@
 package chrisliebaer.chrisliebot.config.flex;
 
 import chrisliebaer.chrisliebot.command.ChrislieListener;
+import com.google.common.base.Preconditions;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.ToString;
 import lombok.experimental.UtilityClass;
 
+import java.lang.reflect.Type;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiFunction;
 
 @UtilityClass
@@ -51,6 +58,18 @@ public class CommonFlex {
 		return new ProviderImpl<>(fn, key);
 	}
 	
+	public static <T> Key<T> key(String name, Class<T> type) {
+		return new Key<>(name, type, null);
+	}
+	
+	public static <T> Key<T> key(String name, Class<T> type, T defaultValue) {
+		return new Key<>(name, type, defaultValue);
+	}
+	
+	public static <T> Key<T> key(String name, Type type, T defaultValue) {
+		return new Key<>(name, type, defaultValue);
+	}
+	
 	public static interface Provider<T> {
 		
 		public Optional<T> get(FlexConf flex);
@@ -65,4 +84,77 @@ public class CommonFlex {
 			return getOrFail(m.ref().flexConf());
 		}
 	}
+	
+	/**
+	 * A key is a flex conf entry with a fixed type and an optional default value. Each key is registered once its
+	 * declaring class is initialized and gets a unique slot, which allows frozen flex confs to store their values in a
+	 * plain array. Since all keys are known by name, the config loader can also check their values before any message
+	 * is processed. Since classes are initialized lazily, the config loader has to call {@link #register(Class)} for
+	 * every class that might declare keys before keys are listed.
+	 */
+	@ToString(onlyExplicitlyIncluded = true)
+	public static final class Key<T> implements Provider<T> {
+		
+		private static final Map<String, Key<?>> REGISTRY = new ConcurrentHashMap<>();
+		private static final List<Key<?>> SLOTS = new CopyOnWriteArrayList<>();
+		
+		@Getter @ToString.Include private final String name;
+		@Getter @ToString.Include private final Type type;
+		@Getter private final int slot;
+		
+		private final Optional<T> defaultValue;
+		
+		private Key(@NonNull String name, @NonNull Type type, T defaultValue) {
+			this.name = name;
+			this.type = type;
+			this.defaultValue = Optional.ofNullable(defaultValue);
+			
+			synchronized (REGISTRY) {
+				Preconditions.checkArgument(!REGISTRY.containsKey(name), "flex key `%s` is already registered", name);
+				slot = SLOTS.size();
+				SLOTS.add(this);
+				REGISTRY.put(name, this);
+			}
+		}
+		
+		/**
+		 * Registers all keys declared by the given class by initializing it. Classes that have already been initialized
+		 * are left alone, so this method can be called any number of times.
+		 *
+		 * @param clazz The class that might declare keys.
+		 */
+		public static void register(@NonNull Class<?> clazz) {
+			try {
+				Class.forName(clazz.getName(), true, clazz.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				throw new IllegalStateException("failed to initialize " + clazz, e); // can't happen, we hold a reference to the class
+			}
+		}
+		
+		public static Optional<Key<?>> registered(String name) {
+			return Optional.ofNullable(REGISTRY.get(name));
+		}
+		
+		/**
+		 * @return A snapshot of all keys that have been registered so far, ordered by their slot.
+		 */
+		public static List<Key<?>> registered() {
+			return List.copyOf(SLOTS);
+		}
+		
+		// only exposed to flex conf, since it's returned as is when the key is not set, avoiding an allocation
+		Optional<T> defaultValue() {
+			return defaultValue;
+		}
+		
+		@Override
+		public Optional<T> get(FlexConf flex) {
+			return flex.get(this);
+		}
+		
+		@Override
+		public T getOrFail(FlexConf flex) throws ChrislieListener.ListenerException {
+			return flex.getOrFail(this);
+		}
+	}
 }
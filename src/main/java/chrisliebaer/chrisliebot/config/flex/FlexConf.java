@@ -2,13 +2,20 @@ package chrisliebaer.chrisliebot.config.flex;
 
 import chrisliebaer.chrisliebot.C;
 import chrisliebaer.chrisliebot.command.ChrislieListener;
+import com.google.common.base.Preconditions;
 import lombok.NonNull;
 
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
 import java.util.OptionalLong;
+import java.util.Set;
 
 /**
  * This class provides a simple map-like data structure for looking up arbitrary values. Multiple instances of this
@@ -18,9 +25,16 @@ import java.util.OptionalLong;
 @SuppressWarnings("OverloadedMethodsWithSameNumberOfParameters")
 public class FlexConf {
 	
-	public static final String DISPATCHER_PATTERN = "dispatcher.pattern";
-	public static final String DISPATCHER_DISABLE = "dispatcher.disable";
-	public static final String DISPATCHER_VERBOSE = "dispatcher.verbose";
+	public static final CommonFlex.Key<String> DISPATCHER_PATTERN = CommonFlex.key("dispatcher.pattern", String.class);
+	public static final CommonFlex.Key<Boolean> DISPATCHER_DISABLE = CommonFlex.key("dispatcher.disable", Boolean.class, false);
+	public static final CommonFlex.Key<Boolean> DISPATCHER_VERBOSE = CommonFlex.key("dispatcher.verbose", Boolean.class, false);
+	
+	private static final Resolver EMPTY = new Resolver() {
+		@Override
+		public Optional<Set<String>> keys() {
+			return Optional.of(Set.of());
+		}
+	};
 	
 	private Resolver resolver;
 	
@@ -29,7 +43,7 @@ public class FlexConf {
 	 * into this one by calling {@link #apply(FlexConf)}.
 	 */
 	public FlexConf() {
-		this.resolver = new Resolver() {};
+		this.resolver = EMPTY;
 	}
 	
 	/**
@@ -49,17 +63,7 @@ public class FlexConf {
 	 * @return A new FlexConf that can be modified without changing the state of the given FlexConf.
 	 */
 	public static FlexConf fallback(@NonNull FlexConf o) {
-		return new FlexConf(new Resolver() {
-			@Override
-			public <V> Optional<V> get(String key, Class<V> clazz) {
-				return o.resolver.get(key, clazz);
-			}
-			
-			@Override
-			public Optional<Object> get(String key, Type type) {
-				return o.resolver.get(key, type);
-			}
-		});
+		return new FlexConf(new FallbackResolver(o));
 	}
 	
 	/**
@@ -88,6 +92,76 @@ public class FlexConf {
 		return this;
 	}
 	
+	/**
+	 * Flattens the current chain of resolvers into a single lookup table, turning each lookup into a single hash probe
+	 * instead of walking every merged FlexConf. Merging further FlexConfs into this one is still possible but the
+	 * frozen part of the chain, including the current state of all fallbacks, will no longer change. Values of all
+	 * registered {@link CommonFlex.Key}s are resolved right away. Freezing does nothing if the chain contains resolvers
+	 * that are unable to list their keys.
+	 *
+	 * @return This flex conf for method chaining.
+	 */
+	public FlexConf freeze() {
+		var leaves = new ArrayList<Resolver>();
+		if (!flatten(resolver, leaves))
+			return this;
+		
+		Map<String, List<Resolver>> owners = new HashMap<>();
+		for (var leaf : leaves) {
+			for (var key : leaf.keys().orElseThrow())
+				owners.computeIfAbsent(key, k -> new ArrayList<>(1)).add(leaf);
+		}
+		
+		var frozen = new HashMap<String, Resolver[]>(owners.size() * 4 / 3 + 1);
+		owners.forEach((key, list) -> frozen.put(key, list.toArray(Resolver[]::new)));
+		var frozenResolver = new FrozenResolver(leaves, frozen);
+		frozenResolver.resolveSlots(CommonFlex.Key.registered());
+		resolver = frozenResolver;
+		return this;
+	}
+	
+	// collects all resolvers that actually provide values in lookup order, returns false if a resolver can't be flattened
+	private static boolean flatten(Resolver resolver, List<Resolver> out) {
+		if (resolver instanceof ChainResolver) {
+			var chain = (ChainResolver) resolver;
+			return flatten(chain.current, out) && flatten(chain.next, out);
+		}
+		if (resolver instanceof FallbackResolver)
+			return flatten(((FallbackResolver) resolver).fallback.resolver, out);
+		if (resolver instanceof FrozenResolver) {
+			out.addAll(((FrozenResolver) resolver).leaves);
+			return true;
+		}
+		var keys = resolver.keys();
+		if (keys.isEmpty())
+			return false;
+		
+		if (!keys.get().isEmpty())
+			out.add(resolver);
+		return true;
+	}
+	
+	public <T> Optional<T> get(@NonNull CommonFlex.Key<T> key) {
+		Optional<Object> value;
+		if (resolver instanceof FrozenResolver) {
+			// all keys are registered before the first flex conf is frozen, so every key must have a slot
+			value = ((FrozenResolver) resolver).slot(key.slot());
+			Preconditions.checkState(value != null, "flex key `%s` has been registered after flex conf was frozen", key.name());
+		} else {
+			value = resolver.get(key.name(), key.type());
+		}
+		
+		return value.isPresent() ? C.unsafeCast(value) : key.defaultValue();
+	}
+	
+	public <T> T getOrFail(@NonNull CommonFlex.Key<T> key) throws ChrislieListener.ListenerException {
+		return get(key).orElseThrow(() -> keyNotFound(key.name()));
+	}
+	
+	public boolean isSet(@NonNull CommonFlex.Key<Boolean> key) {
+		return get(key).orElse(false);
+	}
+	
 	public OptionalInt getInteger(String key) {
 		return resolver.get(key, Integer.class).map(OptionalInt::of).orElseGet(OptionalInt::empty);
 	}
@@ -150,6 +224,15 @@ public class FlexConf {
 	 */
 	public static interface Resolver {
 		
+		/**
+		 * Resolvers that know all of their keys in advance can be flattened by {@link #freeze()}.
+		 *
+		 * @return The set of keys this resolver provides values for or an empty optional if it can't tell.
+		 */
+		public default Optional<Set<String>> keys() {
+			return Optional.empty();
+		}
+		
 		public default <V> Optional<V> get(String key, Class<V> clazz) {
 			return Optional.empty();
 		}
@@ -159,6 +242,25 @@ public class FlexConf {
 		}
 	}
 	
+	private static class FallbackResolver implements Resolver {
+		
+		private FlexConf fallback;
+		
+		public FallbackResolver(@NonNull FlexConf fallback) {
+			this.fallback = fallback;
+		}
+		
+		@Override
+		public <V> Optional<V> get(String key, Class<V> clazz) {
+			return fallback.resolver.get(key, clazz);
+		}
+		
+		@Override
+		public Optional<Object> get(String key, Type type) {
+			return fallback.resolver.get(key, type);
+		}
+	}
+	
 	// this is art
 	private static class ChainResolver implements Resolver {
 		
@@ -180,4 +282,61 @@ public class FlexConf {
 			return current.get(key, type).or(() -> next.get(key, type));
 		}
 	}
+	
+	private static class FrozenResolver implements Resolver {
+		
+		private List<Resolver> leaves;
+		private Map<String, Resolver[]> owners; // resolvers providing each key, in lookup order
+		private Object[] slots = new Object[0]; // resolved value of each registered key, indexed by slot
+		
+		public FrozenResolver(List<Resolver> leaves, Map<String, Resolver[]> owners) {
+			this.leaves = leaves;
+			this.owners = owners;
+		}
+		
+		private void resolveSlots(List<CommonFlex.Key<?>> keys) {
+			slots = new Object[keys.size()];
+			for (var key : keys)
+				slots[key.slot()] = get(key.name(), key.type());
+		}
+		
+		// returns null if the given slot was registered after this resolver was created, which is a bug
+		private Optional<Object> slot(int slot) {
+			return slot < slots.length ? C.unsafeCast(slots[slot]) : null;
+		}
+		
+		@Override
+		public Optional<Set<String>> keys() {
+			return Optional.of(Collections.unmodifiableSet(owners.keySet()));
+		}
+		
+		@Override
+		public <V> Optional<V> get(String key, Class<V> clazz) {
+			var resolvers = owners.get(key);
+			if (resolvers == null)
+				return Optional.empty();
+			
+			// first resolver almost always succeeds, remaining ones are only checked if a value couldn't be converted
+			for (var resolver : resolvers) {
+				var value = resolver.get(key, clazz);
+				if (value.isPresent())
+					return value;
+			}
+			return Optional.empty();
+		}
+		
+		@Override
+		public Optional<Object> get(String key, Type type) {
+			var resolvers = owners.get(key);
+			if (resolvers == null)
+				return Optional.empty();
+			
+			for (var resolver : resolvers) {
+				var value = resolver.get(key, type);
+				if (value.isPresent())
+					return value;
+			}
+			return Optional.empty();
+		}
+	}
 }
@@ -23,6 +23,16 @@ public interface Selector {
 	
 	public default void fromJson(GsonValidator gson, JsonElement json) throws SelectorException {}
 	
+	/**
+	 * Selectors that only depend on the origin of an entity (service, guild, channel and user) allow the resulting
+	 * context to be cached. Selectors that look at the content of a message must opt out of caching.
+	 *
+	 * @return {@code true} if the result of this selector may be cached for the origin of the checked entity.
+	 */
+	public default boolean cacheable() {
+		return true;
+	}
+	
 	/**
 	 * Thrown to indicate that the selector was unable to load the provided config.
 	 */
@@ -8,10 +8,11 @@ import chrisliebaer.chrisliebot.abstraction.ChrislieUser;
 import chrisliebaer.chrisliebot.config.scope.Selector;
 import chrisliebaer.chrisliebot.util.GsonValidator;
 import com.google.gson.JsonElement;
+import lombok.Getter;
 
 public class ChannelSelector implements Selector {
 	
-	private String channel;
+	@Getter private String channel;
 	
 	@Override
 	public void fromJson(GsonValidator gson, JsonElement json) throws SelectorException {
@@ -8,14 +8,28 @@ import chrisliebaer.chrisliebot.abstraction.ChrislieUser;
 import chrisliebaer.chrisliebot.config.scope.Selector;
 import com.google.common.base.Preconditions;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
 
 public class CombinationSelector implements Selector {
 	
-	private List<Selector> selectors;
+	@Getter private List<Selector> selectors; // always in config order
 	private Operation operation;
 	
+	// null unless adaptive ordering has been enabled
+	private Adaptive adaptive;
+	
 	protected enum Operation {
 		OR, AND
 	}
@@ -35,7 +49,41 @@ public class CombinationSelector implements Selector {
 		return new CombinationSelector(selectors, Operation.AND);
 	}
 	
+	/**
+	 * Enables adaptive ordering on this selector and all nested combinations. Selectors must be free of side effects,
+	 * since their evaluation order will change and sampled evaluations check every selector.
+	 *
+	 * @param cfg The adaptive config to use. Does nothing if disabled.
+	 * @param out Receives every selector that uses adaptive ordering after this call.
+	 */
+	public void adaptive(@NonNull AdaptiveConfig cfg, @NonNull Collection<CombinationSelector> out) {
+		if (!cfg.enabled || adaptive != null)
+			return;
+		
+		for (var selector : selectors) {
+			if (selector instanceof CombinationSelector)
+				((CombinationSelector) selector).adaptive(cfg, out);
+		}
+		
+		// there is nothing to reorder with a single selector
+		if (selectors.size() > 1) {
+			adaptive = new Adaptive(cfg);
+			out.add(this);
+		}
+	}
+	
+	/**
+	 * @return The measurements of every selector in this combination, or an empty list if adaptive ordering is
+	 * disabled.
+	 */
+	public List<SelectorStats> selectorStats() {
+		return adaptive == null ? List.of() : adaptive.stats();
+	}
+	
 	public <T> boolean checkAll(BiFunction<Selector, T, Boolean> fn, T in) {
+		if (adaptive != null)
+			return adaptive.check(fn, in);
+		
 		return switch (operation) {
 			case OR -> checkAllOr(fn, in);
 			case AND -> checkAllAnd(fn, in);
@@ -58,6 +106,15 @@ public class CombinationSelector implements Selector {
 		return true;
 	}
 	
+	@Override
+	public boolean cacheable() {
+		for (var selector : selectors) {
+			if (!selector.cacheable())
+				return false;
+		}
+		return true;
+	}
+	
 	@Override
 	public boolean check(ChrislieMessage message) {
 		return checkAll(Selector::check, message);
@@ -82,4 +139,129 @@ public class CombinationSelector implements Selector {
 	public boolean check(ChrislieGuild guild) {
 		return checkAll(Selector::check, guild);
 	}
+	
+	/**
+	 * Controls adaptive ordering of combined selectors. A small fraction of all evaluations is sampled. Sampled
+	 * evaluations check every selector in order to measure their cost and how often they pass. After a number of
+	 * samples, the selectors are reordered so that cheap selectors which are likely to decide the result run first.
+	 */
+	@ToString
+	public static class AdaptiveConfig {
+		
+		private boolean enabled = false;
+		private int sampleRate = 32; // one in this many evaluations is sampled
+		private long reorderInterval = 256; // in samples
+	}
+	
+	@Getter
+	@ToString
+	@AllArgsConstructor
+	public static class SelectorStats {
+		
+		private final Selector selector;
+		private final int position; // current position in evaluation order, starting at 0
+		private final long samples;
+		private final long passed;
+		private final long totalTime; // of all samples, in nanoseconds
+	}
+	
+	private static final class Child {
+		
+		private final Selector selector;
+		private final LongAdder samples = new LongAdder();
+		private final LongAdder passed = new LongAdder();
+		private final LongAdder totalTime = new LongAdder();
+		
+		private Child(Selector selector) {
+			this.selector = selector;
+		}
+	}
+	
+	private final class Adaptive {
+		
+		private final int sampleRate;
+		private final long reorderInterval;
+		
+		private final Child[] children; // in config order
+		private volatile Child[] order;
+		private final AtomicLong sampled = new AtomicLong();
+		
+		private Adaptive(AdaptiveConfig cfg) {
+			sampleRate = Math.max(1, cfg.sampleRate);
+			reorderInterval = Math.max(1, cfg.reorderInterval);
+			
+			children = new Child[selectors.size()];
+			for (int i = 0; i < children.length; i++)
+				children[i] = new Child(selectors.get(i));
+			order = children;
+		}
+		
+		private <T> boolean check(BiFunction<Selector, T, Boolean> fn, T in) {
+			if (ThreadLocalRandom.current().nextInt(sampleRate) == 0)
+				return sample(fn, in);
+			
+			boolean and = operation == Operation.AND;
+			for (var child : order) {
+				if (fn.apply(child.selector, in) != and)
+					return !and;
+			}
+			return and;
+		}
+		
+		// checks every selector, since skipped selectors would never get measured
+		private <T> boolean sample(BiFunction<Selector, T, Boolean> fn, T in) {
+			boolean and = operation == Operation.AND;
+			boolean result = and;
+			for (var child : children) {
+				long start = System.nanoTime();
+				boolean passed = fn.apply(child.selector, in);
+				child.totalTime.add(System.nanoTime() - start);
+				child.samples.increment();
+				if (passed)
+					child.passed.increment();
+				
+				if (passed != and)
+					result = !and;
+			}
+			
+			if (sampled.incrementAndGet() % reorderInterval == 0)
+				reorder();
+			
+			return result;
+		}
+		
+		private synchronized void reorder() {
+			// ranks are snapshotted, since measurements keep changing while sorting
+			boolean and = operation == Operation.AND;
+			var ranks = new double[children.length];
+			var indices = new Integer[children.length];
+			for (int i = 0; i < children.length; i++) {
+				var child = children[i];
+				long samples = Math.max(1, child.samples.sum());
+				double cost = (double) child.totalTime.sum() / samples;
+				double passRate = (double) child.passed.sum() / samples;
+				
+				// expected cost until a selector decides the result on its own
+				double decisive = and ? 1 - passRate : passRate;
+				ranks[i] = cost / Math.max(decisive, 0.001);
+				indices[i] = i;
+			}
+			Arrays.sort(indices, Comparator.comparingDouble(i -> ranks[i]));
+			
+			var order = new Child[children.length];
+			for (int i = 0; i < order.length; i++)
+				order[i] = children[indices[i]];
+			this.order = order;
+		}
+		
+		private List<SelectorStats> stats() {
+			var order = Arrays.asList(this.order);
+			List<SelectorStats> stats = new ArrayList<>(children.length);
+			for (var child : children) {
+				stats.add(new SelectorStats(child.selector, order.indexOf(child),
+						child.samples.sum(), child.passed.sum(), child.totalTime.sum()));
+			}
+			return stats;
+		}
+	}
 }
@@ -5,7 +5,8 @@ import chrisliebaer.chrisliebot.abstraction.ChrislieGuild;
 import chrisliebaer.chrisliebot.abstraction.ChrislieMessage;
 import chrisliebaer.chrisliebot.abstraction.ChrislieService;
 import chrisliebaer.chrisliebot.abstraction.ChrislieUser;
-import chrisliebaer.chrisliebot.abstraction.discord.DiscordMessage;
+import chrisliebaer.chrisliebot.abstraction.discord.DiscordGuild;
+import chrisliebaer.chrisliebot.abstraction.discord.DiscordUser;
 import chrisliebaer.chrisliebot.config.scope.Selector;
 import chrisliebaer.chrisliebot.util.GsonValidator;
 import com.google.gson.JsonElement;
@@ -14,41 +15,64 @@ import net.dv8tion.jda.api.Permission;
 
 import java.util.Set;
 
+/**
+ * Checks guild wide permissions of Discord users. Permissions are looked up in the {@link
+ * chrisliebaer.chrisliebot.abstraction.discord.PermissionCache} of the respective service, so checking them boils down
+ * to comparing bitmasks.
+ */
 public class DiscordPermissionSelector implements Selector {
 	
-	private Set<Permission> permissions;
+	private long required;
 	
 	@Override
 	@SuppressWarnings("EmptyClass")
 	public void fromJson(GsonValidator gson, JsonElement json) throws SelectorException {
-		permissions = gson.fromJson(json, new TypeToken<Set<Permission>>(){}.getType());
+		Set<Permission> permissions = gson.fromJson(json, new TypeToken<Set<Permission>>(){}.getType());
+		required = Permission.getRaw(permissions);
+	}
+	
+	private boolean satisfies(long granted) {
+		return (granted & required) == required;
 	}
 	
 	@Override
-	public boolean check(ChrislieMessage chrislieMessage) {
-		if (chrislieMessage instanceof DiscordMessage) {
-			var message = (DiscordMessage) chrislieMessage;
-			var maybeGuild = message.channel().guild();
-			if (maybeGuild.isEmpty())
-				return false;
-			var guild = maybeGuild.get().guild();
-			var member = guild.getMember(message.user().user());
-			if (member == null)
-				return false;
-			
-			for (var perm : permissions)
-				if (!member.hasPermission(perm))
-					return false;
-			
-			return true;
-		}
+	public boolean check(ChrislieMessage message) {
+		var maybeGuild = message.channel().guild();
+		if (maybeGuild.isEmpty())
+			return false; // direct messages have no permissions
+		
+		var guild = maybeGuild.get();
+		var user = message.user();
+		if (!(guild instanceof DiscordGuild) || !(user instanceof DiscordUser))
+			return false;
 		
-		return check(chrislieMessage.user());
+		var discordGuild = (DiscordGuild) guild;
+		var granted = discordGuild.service().permissionCache().member(discordGuild.guild(), ((DiscordUser) user).user());
+		return granted.isPresent() && satisfies(granted.getAsLong());
 	}
 	
+	/**
+	 * Users have no permissions on their own, so they have to hold the required permissions in every guild they share
+	 * with the bot.
+	 */
 	@Override
 	public boolean check(ChrislieUser chrislieUser) {
-		return false;
+		if (!(chrislieUser instanceof DiscordUser))
+			return false;
+		
+		var discordUser = (DiscordUser) chrislieUser;
+		var user = discordUser.user();
+		var cache = discordUser.service().permissionCache();
+		var guilds = user.getMutualGuilds();
+		if (guilds.isEmpty())
+			return false;
+		
+		for (var guild : guilds) {
+			var granted = cache.member(guild, user);
+			if (granted.isEmpty() || !satisfies(granted.getAsLong()))
+				return false;
+		}
+		return true;
 	}
 	
 	@Override
@@ -61,8 +85,16 @@ public class DiscordPermissionSelector implements Selector {
 		return false;
 	}
 	
+	/**
+	 * A guild only matches if every member holds the required permissions, which is the case if they are granted to
+	 * the public role.
+	 */
 	@Override
 	public boolean check(ChrislieGuild guild) {
-		return false;
+		if (!(guild instanceof DiscordGuild))
+			return false;
+		
+		var discordGuild = (DiscordGuild) guild;
+		return satisfies(discordGuild.service().permissionCache().everyone(discordGuild.guild()));
 	}
 }
@@ -6,11 +6,12 @@ import chrisliebaer.chrisliebot.abstraction.ChrislieMessage;
 import chrisliebaer.chrisliebot.abstraction.ChrislieService;
 import chrisliebaer.chrisliebot.abstraction.ChrislieUser;
 import chrisliebaer.chrisliebot.config.scope.Selector;
+import lombok.Getter;
 import lombok.NonNull;
 
 public class GuildSelector implements Selector {
 	
-	private final ChrislieGuild guild;
+	@Getter private final ChrislieGuild guild;
 	
 	public GuildSelector(@NonNull ChrislieGuild guild) {
 		this.guild = guild;
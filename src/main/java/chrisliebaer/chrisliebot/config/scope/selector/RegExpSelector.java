@@ -9,73 +9,102 @@ import chrisliebaer.chrisliebot.config.scope.Selector;
 import chrisliebaer.chrisliebot.util.GsonValidator;
 import com.google.gson.JsonElement;
 import com.google.gson.reflect.TypeToken;
-import lombok.Builder;
-import lombok.Getter;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.function.Function;
-import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
+/**
+ * Matches entities by comparing their fields against literal strings or regular expressions ({@code r:} prefix). The
+ * config is compiled into a list of rules, which is checked in order. Fields are only fetched if a rule asks for them,
+ * and literal rules are checked before any regular expression has to run.
+ */
 public class RegExpSelector implements Selector {
 	
-	private List<Function<DataContainer, Boolean>> fns;
+	private Rule[] rules;
+	private boolean cacheable = true;
 	
 	@Override
 	public boolean check(ChrislieMessage message) {
-		return test(DataContainer.builder()
-				.service(message.service().identifier())
-				.guild(message.channel().guild().map(ChrislieGuild::identifier).orElse(null))
-				.channel(message.channel().identifier())
-				.user(message.user().identifier())
-				.displayName(message.user().displayName())
-				.message(message.message())
-				
-				.build());
+		for (var rule : rules) {
+			var val = switch (rule.field) {
+				case SERVICE -> message.service().identifier();
+				case GUILD -> guild(message.channel());
+				case CHANNEL -> message.channel().identifier();
+				case USER -> message.user().identifier();
+				case DISPLAY_NAME -> message.user().displayName();
+				case MESSAGE -> message.message();
+			};
+			if (!rule.test(val))
+				return false;
+		}
+		return true;
 	}
 	
 	@Override
 	public boolean check(ChrislieUser user) {
-		return test(DataContainer.builder()
-				.service(user.service().identifier())
-				.user(user.identifier())
-				.displayName(user.displayName())
-				
-				.build());
+		for (var rule : rules) {
+			var val = switch (rule.field) {
+				case SERVICE -> user.service().identifier();
+				case USER -> user.identifier();
+				case DISPLAY_NAME -> user.displayName();
+				default -> null;
+			};
+			if (!rule.test(val))
+				return false;
+		}
+		return true;
 	}
 	
 	@Override
 	public boolean check(ChrislieChannel channel) {
-		return test(DataContainer.builder()
-				.service(channel.service().identifier())
-				.guild(channel.guild().map(ChrislieGuild::identifier).orElse(null))
-				.channel(channel.identifier())
-				
-				.build());
+		for (var rule : rules) {
+			var val = switch (rule.field) {
+				case SERVICE -> channel.service().identifier();
+				case GUILD -> guild(channel);
+				case CHANNEL -> channel.identifier();
+				default -> null;
+			};
+			if (!rule.test(val))
+				return false;
+		}
+		return true;
 	}
 	
 	@Override
 	public boolean check(ChrislieService service) {
-		return test(DataContainer.builder()
-				.service(service.identifier())
-				
-				.build());
+		for (var rule : rules) {
+			if (!rule.test(rule.field == Field.SERVICE ? service.identifier() : null))
+				return false;
+		}
+		return true;
 	}
 	
 	@Override
 	public boolean check(ChrislieGuild guild) {
-		return test(DataContainer.builder()
-				.service(guild.service().identifier())
-				.guild(guild.identifier())
-				
-				.build());
+		for (var rule : rules) {
+			var val = switch (rule.field) {
+				case SERVICE -> guild.service().identifier();
+				case GUILD -> guild.identifier();
+				default -> null;
+			};
+			if (!rule.test(val))
+				return false;
+		}
+		return true;
 	}
 	
-	private boolean test(DataContainer c) {
-		return fns.stream().allMatch(f -> f.apply(c));
+	private static String guild(ChrislieChannel channel) {
+		var guild = channel.guild();
+		return guild.isPresent() ? guild.get().identifier() : null;
+	}
+	
+	@Override
+	public boolean cacheable() {
+		return cacheable;
 	}
 	
 	@SuppressWarnings("EmptyClass")
@@ -84,56 +113,75 @@ public class RegExpSelector implements Selector {
 		var type = new TypeToken<Map<String, String>>() {}.getType();
 		Map<String, String> map = gson.fromJson(json, type);
 		
-		fns = new ArrayList<>(map.size());
-		
+		List<Rule> rules = new ArrayList<>(map.size());
 		for (var e : map.entrySet()) {
 			var key = e.getKey();
 			var pattern = e.getValue();
-			var accessor = DataContainer.accessor(key);
-			if (accessor.isEmpty())
+			var field = Field.of(key);
+			if (field.isEmpty())
 				throw new SelectorException(String.format("unknown key `%s` could not be mapped to accessor", key));
 			
 			if (pattern == null)
 				throw new SelectorException(String.format("pattern for key `%s` is null", key));
 			
+			// message content changes with every message, so we can't cache the result
+			if (field.get() == Field.MESSAGE)
+				cacheable = false;
+			
 			// if pattern starts with r: it is parsed as a regex
-			Predicate<String> predicate;
 			if (pattern.startsWith("r:"))
-				predicate = Pattern.compile(pattern.substring(2)).asPredicate();
+				rules.add(new Rule(field.get(), null, Pattern.compile(pattern.substring(2))));
 			else
-				predicate = pattern::equals;
-			
-			// build function that takes container, uses accessor to extract value and tests with the given predicate
-			fns.add(c -> {
-				var val = accessor.get().apply(c);
-				return val != null && predicate.test(val);
-			});
+				rules.add(new Rule(field.get(), pattern, null));
 		}
+		
+		// all rules have to match, so cheap rules go first in order to fail early
+		rules.sort(Comparator.comparing((Rule r) -> r.pattern != null).thenComparing(r -> r.field));
+		this.rules = rules.toArray(Rule[]::new);
 	}
 	
-	@Builder
-	private static class DataContainer {
-		
-		@Getter private final String service;
-		@Getter private final String guild;
-		@Getter private final String channel;
-		@Getter private final String user;
-		@Getter private final String displayName;
-		@Getter private final String message;
+	// declared in the order in which fields should be checked, cheap and selective fields first
+	private enum Field {
+		SERVICE,
+		GUILD,
+		CHANNEL,
+		USER,
+		DISPLAY_NAME,
+		MESSAGE;
 		
-		public static Optional<Function<DataContainer, String>> accessor(String key) {
+		public static Optional<Field> of(String key) {
 			if (key == null)
 				return Optional.empty();
 			
 			return switch (key) {
-				case "service" -> Optional.of(DataContainer::service);
-				case "guild" -> Optional.of(DataContainer::guild);
-				case "channel" -> Optional.of(DataContainer::channel);
-				case "user" -> Optional.of(DataContainer::user);
-				case "displayName" -> Optional.of(DataContainer::displayName);
-				case "message" -> Optional.of(DataContainer::message);
+				case "service" -> Optional.of(SERVICE);
+				case "guild" -> Optional.of(GUILD);
+				case "channel" -> Optional.of(CHANNEL);
+				case "user" -> Optional.of(USER);
+				case "displayName" -> Optional.of(DISPLAY_NAME);
+				case "message" -> Optional.of(MESSAGE);
 				default -> Optional.empty();
 			};
 		}
 	}
+	
+	private static final class Rule {
+		
+		private final Field field;
+		private final String literal; // null if this rule uses a pattern
+		private final Pattern pattern;
+		
+		private Rule(Field field, String literal, Pattern pattern) {
+			this.field = field;
+			this.literal = literal;
+			this.pattern = pattern;
+		}
+		
+		// fields that are not available on the checked entity are passed as null and never match
+		private boolean test(String val) {
+			if (val == null)
+				return false;
+			return literal != null ? literal.equals(val) : pattern.matcher(val).find();
+		}
+	}
 }
@@ -8,10 +8,11 @@ import chrisliebaer.chrisliebot.abstraction.ChrislieUser;
 import chrisliebaer.chrisliebot.config.scope.Selector;
 import chrisliebaer.chrisliebot.util.GsonValidator;
 import com.google.gson.JsonElement;
+import lombok.Getter;
 
 public class ServiceIdentifierSelector implements Selector {
 	
-	private String identifier;
+	@Getter private String identifier;
 	
 	@Override
 	public boolean check(ChrislieMessage message) {
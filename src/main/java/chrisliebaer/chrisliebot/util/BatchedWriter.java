@@ -0,0 +1,302 @@
+package chrisliebaer.chrisliebot.util;
+
+import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects records in a bounded queue and writes them to the database in batches from a background thread. Callers
+ * only pay for putting a record into the queue, so slow database round trips don't hold back event threads. Each batch
+ * is written in a single transaction over a connection that is kept open between batches. If a batch keeps failing,
+ * its records are written on their own, so only records that are actually rejected get lost.
+ *
+ * @param <T> The type of records to write.
+ */
+@Slf4j
+public class BatchedWriter<T> implements AutoCloseable {
+	
+	// log every n-th dropped record, since logging every single one would make an overload even worse
+	private static final long DROP_LOG_INTERVAL = 1000;
+	
+	private final DataSource dataSource;
+	private final String name;
+	private final Config cfg;
+	private final BatchConsumer<T> consumer;
+	
+	private final BlockingQueue<T> queue;
+	private final Thread writer;
+	private volatile boolean closed;
+	
+	private final AtomicLong dropped = new AtomicLong();
+	private final LongAdder blocked = new LongAdder();
+	
+	// only accessed by writer thread, kept open between batches so the encoding only has to be set once
+	private Connection connection;
+	
+	public BatchedWriter(@NonNull DataSource dataSource, @NonNull String name, @NonNull Config cfg, @NonNull BatchConsumer<T> consumer) {
+		this.dataSource = dataSource;
+		this.name = name;
+		this.cfg = cfg;
+		this.consumer = consumer;
+		
+		queue = new ArrayBlockingQueue<>(cfg.capacity);
+		writer = new Thread(this::run, name);
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Queues the given record. If the queue is full, the configured overflow policy decides what happens. Records
+	 * submitted after this writer has been closed are silently ignored.
+	 *
+	 * @param record The record to write.
+	 * @return {@code false} if the given record has been dropped right away. Accepted records can still be lost if the
+	 * database rejects them or they are pushed out by newer records.
+	 */
+	public boolean submit(@NonNull T record) {
+		if (closed)
+			return false;
+		
+		switch (cfg.overflowPolicy) {
+			case DROP_NEWEST -> {
+				if (!queue.offer(record)) {
+					drop();
+					return false;
+				}
+			}
+			case DROP_OLDEST -> {
+				while (!queue.offer(record))
+					if (queue.poll() != null)
+						drop();
+			}
+			case BLOCK -> {
+				if (queue.offer(record))
+					return true;
+				
+				blocked.increment();
+				try {
+					queue.put(record);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					drop();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	private void drop() {
+		if (dropped.getAndIncrement() % DROP_LOG_INTERVAL == 0)
+			log.warn("{} is overloaded, {} records have been dropped so far", name, dropped.get());
+	}
+	
+	/**
+	 * @return The number of records that have been dropped since the queue was full or the database rejected them.
+	 */
+	public long dropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * @return The number of times a caller had to wait for the queue to free up.
+	 */
+	public long blocked() {
+		return blocked.sum();
+	}
+	
+	/**
+	 * @return The number of records waiting to be written.
+	 */
+	public int backlog() {
+		return queue.size();
+	}
+	
+	/**
+	 * Stops accepting new records and waits for the writer to write all pending records.
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		closed = true;
+		writer.join(TimeUnit.SECONDS.toMillis(cfg.closeTimeout));
+		if (writer.isAlive())
+			log.warn("{} did not finish in time, {} records are lost", name, queue.size());
+	}
+	
+	private void run() {
+		List<T> batch = new ArrayList<>(cfg.batchSize);
+		try {
+			while (!closed || !queue.isEmpty()) {
+				fill(batch);
+				try {
+					if (!batch.isEmpty())
+						write(batch);
+				} catch (RuntimeException e) {
+					// a bug in the consumer must not stop the writer, callers would block forever on a full queue
+					closeConnection(); // transaction is in an unknown state
+					lost(batch.size(), e);
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException ignore) {
+			Thread.currentThread().interrupt();
+		} finally {
+			closeConnection();
+		}
+	}
+	
+	// collects records until the batch is full or the flush interval has passed since the first record of the batch
+	private void fill(List<T> batch) throws InterruptedException {
+		var first = queue.poll(cfg.flushInterval, TimeUnit.MILLISECONDS);
+		if (first == null)
+			return;
+		batch.add(first);
+		
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cfg.flushInterval);
+		while (batch.size() < cfg.batchSize && !closed) {
+			if (queue.drainTo(batch, cfg.batchSize - batch.size()) > 0)
+				continue;
+			
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				break;
+			
+			var record = queue.poll(remaining, TimeUnit.NANOSECONDS);
+			if (record == null)
+				break;
+			batch.add(record);
+		}
+		
+		// on shutdown we just take what's there
+		if (closed)
+			queue.drainTo(batch, cfg.batchSize - batch.size());
+	}
+	
+	private void write(List<T> batch) {
+		// the connection might have gone stale while we were waiting, so we retry once with a fresh one
+		Exception failure = null;
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				var conn = connection();
+				consumer.write(conn, batch);
+				conn.commit();
+				return;
+			} catch (SQLException e) {
+				closeConnection();
+				failure = e;
+			}
+		}
+		
+		if (batch.size() == 1) {
+			lost(1, failure);
+			return;
+		}
+		
+		// a single record the server rejects fails the entire batch, writing them one by one only loses the rejected ones
+		int lost = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			Connection conn;
+			try {
+				conn = connection();
+			} catch (SQLException e) {
+				lost += batch.size() - i; // database is gone, no point in trying the remaining records
+				failure = e;
+				break;
+			}
+			
+			try {
+				consumer.write(conn, List.of(batch.get(i)));
+				conn.commit();
+			} catch (SQLException | RuntimeException e) {
+				lost++;
+				failure = e;
+				rollback();
+			}
+		}
+		if (lost > 0)
+			lost(lost, failure);
+	}
+	
+	private void lost(int count, Exception e) {
+		dropped.addAndGet(count);
+		log.warn("{} failed to write {} records", name, count, e);
+	}
+	
+	private void rollback() {
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			closeConnection();
+		}
+	}
+	
+	private Connection connection() throws SQLException {
+		if (connection == null) {
+			var conn = dataSource.getConnection();
+			try {
+				ensureEncoding(conn);
+				conn.setAutoCommit(false);
+			} catch (SQLException e) {
+				conn.close();
+				throw e;
+			}
+			connection = conn;
+		}
+		return connection;
+	}
+	
+	private static void ensureEncoding(Connection conn) {
+		try (var stmt = conn.prepareStatement("SET NAMES 'utf8mb4'")) {
+			stmt.execute();
+		} catch (SQLException e) {
+			log.error("failed to set sql connection to utf8mb4, emojis might cause errors", e);
+		}
+	}
+	
+	private void closeConnection() {
+		if (connection == null)
+			return;
+		
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			log.debug("failed to close connection of {}", name, e);
+		}
+		connection = null;
+	}
+	
+	@FunctionalInterface
+	public interface BatchConsumer<T> {
+		
+		/**
+		 * Writes the given batch. The transaction is committed by the caller.
+		 *
+		 * @param conn  The connection to use.
+		 * @param batch The records to write, never empty.
+		 * @throws SQLException If writing failed, the batch will be retried once with a new connection and then record by
+		 *                      record.
+		 */
+		public void write(Connection conn, List<T> batch) throws SQLException;
+	}
+	
+	@ToString
+	public static class Config {
+		
+		private int capacity = 10000; // maximum number of records waiting to be written
+		private int batchSize = 100;
+		private long flushInterval = 1000; // maximum time in ms a record waits for its batch to fill up
+		private LaneExecutor.OverflowPolicy overflowPolicy = LaneExecutor.OverflowPolicy.DROP_NEWEST;
+		private long closeTimeout = 10; // in seconds
+	}
+}
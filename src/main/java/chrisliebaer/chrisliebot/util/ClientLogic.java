@@ -3,7 +3,6 @@ package chrisliebaer.chrisliebot.util;
 import lombok.extern.slf4j.Slf4j;
 import net.engio.mbassy.listener.Handler;
 import net.engio.mbassy.listener.Invoke;
-import org.kitteh.irc.client.library.event.channel.ChannelInviteEvent;
 import org.kitteh.irc.client.library.event.client.ClientReceiveCommandEvent;
 import org.kitteh.irc.client.library.feature.filter.CommandFilter;
 
@@ -33,12 +32,4 @@ public class ClientLogic {
 			r = param.get(0);
 		ev.getClient().sendRawLine("PONG :" + r);
 	}
-	
-	@Handler
-	public void onInvite(ChannelInviteEvent ev) {
-		if (ev.getTarget().equals(ev.getClient().getNick())) {
-			log.info("received invite from {} to join {}", ev.getActor().getName(), ev.getChannel().getName());
-			ev.getChannel().join();
-		}
-	}
 }
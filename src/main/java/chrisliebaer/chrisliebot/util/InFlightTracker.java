@@ -0,0 +1,96 @@
+package chrisliebaer.chrisliebot.util;
+
+import lombok.NonNull;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of threads that are currently inside a critical section without sharing any state between them. Each
+ * thread counts on its own counter, so entering and leaving the section never contends with other threads. Only
+ * {@link #awaitQuiescence(Duration)} has to look at all counters, which is fine since it's only used during shutdown.
+ *
+ * <p>
+ * Callers are expected to stop new threads from doing actual work inside the section before waiting for it to drain,
+ * usually by checking a volatile flag after calling {@link #enter()}.
+ * </p>
+ */
+public class InFlightTracker {
+	
+	// upper bound for a single wait, in case a wakeup is missed
+	private static final long POLL_INTERVAL = 100; // in milliseconds
+	
+	// guarded by itself, counters of terminated threads disappear together with their thread
+	private final Map<Thread, Counter> counters = new WeakHashMap<>();
+	private final ThreadLocal<Counter> local = ThreadLocal.withInitial(() -> {
+		var counter = new Counter();
+		synchronized (counters) {
+			counters.put(Thread.currentThread(), counter);
+		}
+		return counter;
+	});
+	
+	private final Object lock = new Object();
+	private volatile boolean waiting;
+	
+	public void enter() {
+		var counter = local.get();
+		counter.value = counter.value + 1; // only the owning thread writes to its counter
+	}
+	
+	public void exit() {
+		var counter = local.get();
+		counter.value = counter.value - 1;
+		
+		// waking up waiters is only required while someone is actually waiting
+		if (waiting) {
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * @return The number of threads that are currently inside the section.
+	 */
+	public long inFlight() {
+		long sum = 0;
+		synchronized (counters) {
+			for (var counter : counters.values())
+				sum += counter.value;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Blocks until no thread is inside the section or the given timeout expires.
+	 *
+	 * @param timeout The maximum time to wait.
+	 * @return {@code true} if the section was drained, {@code false} if the timeout expired.
+	 * @throws InterruptedException If the calling thread was interrupted while waiting.
+	 */
+	public boolean awaitQuiescence(@NonNull Duration timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		waiting = true;
+		try {
+			synchronized (lock) {
+				while (inFlight() != 0) {
+					long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if (remaining <= 0)
+						return false;
+					lock.wait(Math.min(remaining, POLL_INTERVAL));
+				}
+			}
+			return true;
+		} finally {
+			waiting = false;
+		}
+	}
+	
+	private static final class Counter {
+		
+		private volatile long value;
+	}
+}
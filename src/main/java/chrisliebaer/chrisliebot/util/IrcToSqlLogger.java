@@ -5,6 +5,7 @@ import lombok.Data;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import net.engio.mbassy.listener.Handler;
+import org.kitteh.irc.client.library.Client;
 import org.kitteh.irc.client.library.element.User;
 import org.kitteh.irc.client.library.event.abstractbase.ActorChannelMessageEventBase;
 import org.kitteh.irc.client.library.event.abstractbase.ActorPrivateMessageEventBase;
@@ -25,32 +26,66 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.List;
+import java.util.function.BiPredicate;
 
+/**
+ * Writes all chat events of an IRC connection to the database. Events are only recorded on the event thread of the
+ * library and written in batches by a {@link BatchedWriter}, so a slow database can't hold back the IRC client.
+ */
 @Slf4j
-public class IrcToSqlLogger {
+public class IrcToSqlLogger implements AutoCloseable {
+	
+	private static final String SQL_INSERT = "INSERT INTO chatlog(timestamp, service, context, type, nickname, realname, ident, host, account, message) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 	
 	public enum MessageType {
 		NORMAL, CTCP, NOTICE, JOIN, PART, QUIT, NICK, KICK
 	}
 	
-	private final DataSource dataSource;
 	private final String identifier;
+	private final BatchedWriter<LogRecord> writer;
+	
+	// decides which connection logs the events of a channel, since a logger can be shared by multiple connections
+	private volatile BiPredicate<Client, String> channelFilter = (client, channel) -> true;
+	
+	// same for events of users that are seen by every connection sharing a channel with the user
+	private volatile BiPredicate<Client, User> userFilter = (client, user) -> true;
+	
+	// same for private conversations, tested against our own nickname
+	private volatile BiPredicate<Client, String> queryFilter = (client, nick) -> true;
 	
-	public IrcToSqlLogger(@NonNull DataSource dataSource, @NonNull String identifier) {
-		this.dataSource = dataSource;
+	public IrcToSqlLogger(@NonNull DataSource dataSource, @NonNull String identifier, @NonNull BatchedWriter.Config cfg) {
 		this.identifier = identifier;
+		writer = new BatchedWriter<>(dataSource, "ChatLogWriter-" + identifier, cfg, this::write);
 	}
 	
-	private void ensureEncoding(Connection conn) {
-		try (var stmt = conn.prepareStatement("SET NAMES 'utf8mb4'")) {
-			stmt.execute();
-		} catch (SQLException e) {
-			log.error("failed to set sql connection to utf8mb4, emojis might cause errors", e);
-		}
+	/**
+	 * @param channelFilter Only channel events for which this predicate returns {@code true} will be logged.
+	 */
+	public void channelFilter(@NonNull BiPredicate<Client, String> channelFilter) {
+		this.channelFilter = channelFilter;
+	}
+	
+	/**
+	 * @param userFilter Only user events without a channel for which this predicate returns {@code true} will be logged.
+	 */
+	public void userFilter(@NonNull BiPredicate<Client, User> userFilter) {
+		this.userFilter = userFilter;
+	}
+	
+	/**
+	 * @param queryFilter Only private messages for which this predicate returns {@code true} for our own nickname will
+	 *                    be logged.
+	 */
+	public void queryFilter(@NonNull BiPredicate<Client, String> queryFilter) {
+		this.queryFilter = queryFilter;
 	}
 	
 	@Handler
 	public void logChannel(ActorChannelMessageEventBase<User> ev) {
+		if (!channelFilter.test(ev.getClient(), ev.getChannel().getName()))
+			return;
+		
 		MessageType type = null;
 		if (ev instanceof ChannelCtcpEvent) {
 			type = MessageType.CTCP;
@@ -66,25 +101,42 @@ public class IrcToSqlLogger {
 	
 	@Handler
 	public void logJoin(ChannelJoinEvent ev) {
+		if (!channelFilter.test(ev.getClient(), ev.getChannel().getName()))
+			return;
+		
 		logMessage(new Date(), ev.getChannel().getName(), ev.getUser(), null, MessageType.JOIN);
 	}
 	
 	@Handler
 	public void logPart(ChannelPartEvent ev) {
+		if (!channelFilter.test(ev.getClient(), ev.getChannel().getName()))
+			return;
+		
 		logMessage(new Date(), ev.getChannel().getName(), ev.getUser(), null, MessageType.PART);
 	}
 	
 	@Handler
 	public void logQuit(UserQuitEvent ev) {
 		if (ev.getAffectedChannel().isPresent()) {
+			if (!channelFilter.test(ev.getClient(), ev.getAffectedChannel().get().getName()))
+				return;
+			
 			logMessage(new Date(), ev.getAffectedChannel().get().getName(), ev.getUser(), null, MessageType.QUIT);
 		} else {
+			if (!userFilter.test(ev.getClient(), ev.getUser()))
+				return;
+			
 			logMessage(new Date(), ev.getUser().getNick(), ev.getUser(), null, MessageType.QUIT);
 		}
 	}
 	
 	@Handler
 	public void logQuery(ActorPrivateMessageEventBase<User> ev) {
+		// our own messages are echoed with the other side as target
+		var self = ev.getClient().isUser(ev.getActor()) ? ev.getActor().getNick() : ev.getTarget();
+		if (!queryFilter.test(ev.getClient(), self))
+			return;
+		
 		if (ev instanceof PrivateMessageEvent) {
 			logMessage(new Date(), ev.getTarget(), ev.getActor(), ev.getMessage(), MessageType.NORMAL);
 		} else if (ev instanceof PrivateCtcpQueryEvent) {
@@ -96,48 +148,96 @@ public class IrcToSqlLogger {
 	
 	@Handler
 	public void logNick(UserNickChangeEvent ev) {
+		if (!userFilter.test(ev.getClient(), ev.getNewUser()))
+			return;
+		
 		logMessage(new Date(), ev.getOldUser().getNick(), ev.getOldUser(), ev.getSource().getMessage(), MessageType.NICK);
 	}
 	
 	@Handler
 	public void logKick(ChannelKickEvent ev) {
+		if (!channelFilter.test(ev.getClient(), ev.getChannel().getName()))
+			return;
+		
 		logMessage(new Date(), ev.getChannel().getName(), ev.getUser(), ev.getMessage() + "(" + ev.getTarget().getNick() + ")", MessageType.KICK);
 	}
 	
-	private synchronized void logMessage(Date when, String context, User sender, String message, MessageType type) {
+	private void logMessage(Date when, String context, User sender, String message, MessageType type) {
 		log.trace("LOG: {} [{}] {}: {} ({})", when, context, sender.getNick(), message, type);
 		
-		try {
-			String sql = "INSERT INTO chatlog(timestamp, service, context, type, nickname, realname, ident, host, account, message) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-			try (Connection connection = dataSource.getConnection();
-				 var stmt = connection.prepareStatement(sql)) {
-				
-				ensureEncoding(connection);
-				
-				stmt.setTimestamp(1, new Timestamp(when.getTime()));
+		writer.submit(LogRecord.builder()
+				.timestamp(new Timestamp(when.getTime()))
+				.context(context)
+				.type(type)
+				.nickname(sender.getNick())
+				.realname(sender.getRealName().orElse(null))
+				.ident(sender.getUserString())
+				.host(sender.getHost())
+				.account(sender.getAccount().orElse(null))
+				.message(message)
+				.build());
+	}
+	
+	private void write(Connection conn, List<LogRecord> batch) throws SQLException {
+		try (var stmt = conn.prepareStatement(SQL_INSERT)) {
+			for (var record : batch) {
+				stmt.setTimestamp(1, record.timestamp);
 				stmt.setString(2, identifier);
-				stmt.setString(3, context);
-				stmt.setString(4, type.name());
-				stmt.setString(5, sender.getNick());
-				stmt.setString(6, sender.getRealName().orElse(null));
-				stmt.setString(7, sender.getUserString());
-				stmt.setString(8, sender.getHost());
-				stmt.setString(9, sender.getAccount().orElse(null));
-				stmt.setString(10, message);
-				stmt.execute();
+				stmt.setString(3, record.context);
+				stmt.setString(4, record.type.name());
+				stmt.setString(5, record.nickname);
+				stmt.setString(6, record.realname);
+				stmt.setString(7, record.ident);
+				stmt.setString(8, record.host);
+				stmt.setString(9, record.account);
+				stmt.setString(10, record.message);
+				stmt.addBatch();
 			}
-		} catch (SQLException e) {
-			log.warn("error while logging message", e);
+			stmt.executeBatch();
 		}
 	}
 	
+	/**
+	 * @return The number of chat log records that have been dropped since the queue was full or the database rejected them.
+	 */
+	public long dropped() {
+		return writer.dropped();
+	}
+	
+	/**
+	 * @return The number of times the event thread had to wait for the queue to free up.
+	 */
+	public long blocked() {
+		return writer.blocked();
+	}
+	
+	/**
+	 * @return The number of chat log records waiting to be written.
+	 */
+	public int backlog() {
+		return writer.backlog();
+	}
+	
+	/**
+	 * Stops accepting new events and waits for all pending records to be written.
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		writer.close();
+	}
+	
 	@Data
 	@Builder
 	private static class LogRecord {
 		
-		private Timestamp timestamp; // find out type
+		private Timestamp timestamp;
+		private String context;
+		private MessageType type;
 		private String nickname;
+		private String realname;
+		private String ident;
+		private String host;
+		private String account;
 		private String message;
-		private MessageType type;
 	}
 }
@@ -0,0 +1,253 @@
+package chrisliebaer.chrisliebot.util;
+
+import com.google.common.base.Preconditions;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes tasks on a fixed pool of threads while tasks that were submitted with the same key are executed one after
+ * another in submission order. Each key gets its own lane with a bounded queue. Once a lane is full, the configured
+ * {@link OverflowPolicy} decides what happens to new tasks.
+ *
+ * @param <K> The type of key used to separate lanes. Must be usable as key in a {@link HashMap}.
+ */
+@Slf4j
+public class LaneExecutor<K> {
+	
+	// lanes yield their thread after this many tasks so busy lanes can't starve the others
+	private static final int BATCH_SIZE = 16;
+	
+	private final ExecutorService pool;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	
+	// all lane state is guarded by this map
+	private final Map<K, Lane> lanes = new HashMap<>();
+	private int queued;
+	private boolean shutdown;
+	
+	private final LongAdder executed = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder latencySum = new LongAdder();
+	private final AtomicLong latencyMax = new AtomicLong();
+	
+	public LaneExecutor(@NonNull String name, int threads, int capacity, @NonNull OverflowPolicy policy) {
+		Preconditions.checkArgument(threads > 0, "thread count must be positive");
+		Preconditions.checkArgument(capacity > 0, "lane capacity must be positive");
+		
+		this.capacity = capacity;
+		this.policy = policy;
+		
+		var counter = new AtomicInteger();
+		pool = Executors.newFixedThreadPool(threads, r -> {
+			var t = new Thread(r, name + "-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			t.setUncaughtExceptionHandler((t1, e) -> log.error("uncaught exception in lane executor {}", t1.getName(), e));
+			return t;
+		});
+	}
+	
+	/**
+	 * Queues the given task in the lane of the given key.
+	 *
+	 * @param key  The key that determines the lane of this task.
+	 * @param task The task to execute.
+	 * @return {@code false} if the task was dropped, either due to the overflow policy or because this executor was
+	 * shut down.
+	 */
+	public boolean submit(@NonNull K key, @NonNull Runnable task) {
+		synchronized (lanes) {
+			var lane = lanes.get(key);
+			
+			while (!shutdown && lane != null && lane.queue.size() >= capacity) {
+				if (!lane.overflowing) {
+					log.warn("lane `{}` exceeded its capacity of {} tasks, applying overflow policy {}", key, capacity, policy);
+					lane.overflowing = true;
+				}
+				
+				switch (policy) {
+					case DROP_NEWEST -> {
+						dropped.increment();
+						return false;
+					}
+					case DROP_OLDEST -> {
+						lane.queue.removeFirst();
+						queued--;
+						dropped.increment();
+					}
+					case BLOCK -> {
+						try {
+							lanes.wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							dropped.increment();
+							return false;
+						}
+						
+						// lane might have been removed while we were waiting
+						lane = lanes.get(key);
+					}
+				}
+			}
+			
+			if (shutdown)
+				return false;
+			
+			if (lane == null) {
+				lane = new Lane(key);
+				lanes.put(key, lane);
+			}
+			
+			lane.queue.addLast(new Task(task, System.nanoTime()));
+			queued++;
+			
+			if (!lane.scheduled) {
+				lane.scheduled = true;
+				pool.execute(lane);
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Stops accepting new tasks. Tasks that have already been queued will still be executed.
+	 */
+	public void shutdown() {
+		synchronized (lanes) {
+			shutdown = true;
+			lanes.notifyAll(); // release blocked producers
+		}
+		pool.shutdown();
+	}
+	
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return pool.awaitTermination(timeout, unit);
+	}
+	
+	/**
+	 * Takes a snapshot of the current state of this executor. The maximum latency is reset by this call.
+	 *
+	 * @return The current state of this executor.
+	 */
+	public Stats stats() {
+		int lanesSize, deepest = 0, queued;
+		synchronized (lanes) {
+			lanesSize = lanes.size();
+			queued = this.queued;
+			for (var lane : lanes.values())
+				deepest = Math.max(deepest, lane.queue.size());
+		}
+		
+		long executed = this.executed.sum();
+		long avgLatency = executed == 0 ? 0 : latencySum.sum() / executed;
+		return new Stats(lanesSize, queued, deepest, executed, dropped.sum(),
+				TimeUnit.NANOSECONDS.toMillis(avgLatency),
+				TimeUnit.NANOSECONDS.toMillis(latencyMax.getAndSet(0)));
+	}
+	
+	public static enum OverflowPolicy {
+		
+		/**
+		 * New tasks are dropped while the lane is full.
+		 */
+		DROP_NEWEST,
+		
+		/**
+		 * The oldest queued task of the lane is dropped to make room for the new task.
+		 */
+		DROP_OLDEST,
+		
+		/**
+		 * The submitting thread is blocked until the lane has room for the new task.
+		 */
+		BLOCK
+	}
+	
+	@Getter
+	@ToString
+	@AllArgsConstructor
+	public static class Stats {
+		
+		private final int lanes; // number of lanes with pending tasks
+		private final int queued; // number of tasks waiting for execution in all lanes
+		private final int deepestLane; // number of tasks waiting in the most busy lane
+		private final long executed;
+		private final long dropped;
+		private final long averageLatency; // time between submission and execution in milliseconds
+		private final long maximumLatency; // since last snapshot, in milliseconds
+	}
+	
+	@AllArgsConstructor
+	private static final class Task {
+		
+		private final Runnable runnable;
+		private final long submitted;
+	}
+	
+	private final class Lane implements Runnable {
+		
+		private final K key;
+		private final ArrayDeque<Task> queue = new ArrayDeque<>();
+		
+		private boolean scheduled;
+		private boolean overflowing;
+		
+		private Lane(K key) {
+			this.key = key;
+		}
+		
+		@Override
+		public void run() {
+			int budget = BATCH_SIZE;
+			while (true) {
+				Task task;
+				synchronized (lanes) {
+					task = queue.pollFirst();
+					if (task == null) {
+						// lane is drained, a new lane will be created on the next submission
+						scheduled = false;
+						lanes.remove(key);
+						return;
+					}
+					
+					// remaining tasks are continued after other lanes had their turn, pool won't accept them after shutdown
+					if (budget-- == 0 && !shutdown) {
+						queue.addFirst(task);
+						pool.execute(this);
+						return;
+					}
+					
+					queued--;
+					if (queue.size() < capacity)
+						overflowing = false;
+					if (policy == OverflowPolicy.BLOCK)
+						lanes.notifyAll();
+				}
+				
+				long latency = System.nanoTime() - task.submitted;
+				latencySum.add(latency);
+				latencyMax.accumulateAndGet(latency, Math::max);
+				
+				try {
+					task.runnable.run();
+				} catch (RuntimeException e) {
+					log.error("task in lane `{}` failed", key, e);
+				}
+				executed.increment();
+			}
+		}
+	}
+}
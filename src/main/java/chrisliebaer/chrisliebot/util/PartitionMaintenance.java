@@ -0,0 +1,233 @@
+package chrisliebaer.chrisliebot.util;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the monthly partitions of the log tables up to date. Partitions for upcoming months are created ahead of time
+ * and partitions that are older than the configured retention are either dropped or moved into archive tables. Both
+ * are metadata only operations, so unlike deleting rows, they don't slow down the database. Requires the partitioning
+ * from {@code sql/005_partition_logs.sql}.
+ */
+@Slf4j
+public class PartitionMaintenance implements Runnable {
+	
+	private static final String PARTITION_FUTURE = "p_future";
+	private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+	private static final long DISCORD_EPOCH = 1420070400000L;
+	
+	private final DataSource dataSource;
+	private final Config cfg;
+	
+	public PartitionMaintenance(@NonNull DataSource dataSource, @NonNull Config cfg) {
+		this.dataSource = dataSource;
+		this.cfg = cfg;
+	}
+	
+	@Override
+	public void run() {
+		// exceptions would cancel all further executions on the shared timer
+		for (var table : Table.values()) {
+			try {
+				maintain(table, table.retention(cfg));
+			} catch (SQLException | RuntimeException e) {
+				log.error("failed to maintain partitions of {}", table.table, e);
+			}
+		}
+	}
+	
+	private void maintain(Table table, Integer retention) throws SQLException {
+		try (var conn = dataSource.getConnection()) {
+			var partitions = partitions(conn, table);
+			if (!partitions.containsKey(PARTITION_FUTURE)) {
+				log.warn("table {} is not partitioned, skipping maintenance", table.table);
+				return;
+			}
+			
+			// create partitions for upcoming months, each ends where the next month starts
+			long highest = partitions.values().stream().filter(Objects::nonNull).mapToLong(Long::longValue).max().orElse(Long.MIN_VALUE);
+			var month = YearMonth.now(ZoneOffset.UTC);
+			for (int i = 0; i <= cfg.monthsAhead; i++) {
+				var m = month.plusMonths(i);
+				long bound = table.bound(start(m.plusMonths(1)));
+				if (bound <= highest)
+					continue;
+				
+				var name = PARTITION_NAME.format(m);
+				log.info("creating partition {} of {}", name, table.table);
+				execute(conn, "ALTER TABLE `%s` REORGANIZE PARTITION `%s` INTO (PARTITION `%s` VALUES LESS THAN (%d), PARTITION `%s` VALUES LESS THAN MAXVALUE)"
+						.formatted(table.table, PARTITION_FUTURE, name, bound, PARTITION_FUTURE));
+				highest = bound;
+			}
+			
+			if (retention == null)
+				return;
+			
+			// a partition can go once its newest possible row is older than the retention
+			var cutoff = start(month.minusMonths(retention));
+			for (var e : partitions.entrySet()) {
+				var bound = e.getValue();
+				if (bound == null || table.instant(bound).isAfter(cutoff))
+					continue;
+				
+				expire(conn, table, e.getKey());
+			}
+		}
+	}
+	
+	private void expire(Connection conn, Table table, String partition) throws SQLException {
+		if (cfg.archive) {
+			// exchange only swaps table files, archive table has to match the partitioned table except for partitioning
+			var archive = table.table + "_archive_" + partition.replaceFirst("^p_?", "");
+			log.info("archiving partition {} of {} into {}", partition, table.table, archive);
+			
+			// each step can be repeated, so a run that failed halfway is completed by the next one
+			if (!exists(conn, archive)) {
+				execute(conn, "CREATE TABLE `%s` LIKE `%s`".formatted(archive, table.table));
+				execute(conn, "ALTER TABLE `%s` REMOVE PARTITIONING".formatted(archive));
+			}
+			if (isEmpty(conn, archive)) {
+				execute(conn, "ALTER TABLE `%s` EXCHANGE PARTITION `%s` WITH TABLE `%s`".formatted(table.table, partition, archive));
+			} else if (!isEmpty(conn, table.table, partition)) {
+				// both hold rows, dropping would lose data
+				log.error("archive table {} and partition {} of {} both contain rows, skipping partition", archive, partition, table.table);
+				return;
+			}
+		} else {
+			log.info("dropping partition {} of {}", partition, table.table);
+		}
+		execute(conn, "ALTER TABLE `%s` DROP PARTITION `%s`".formatted(table.table, partition));
+	}
+	
+	// returns all partitions in order with their upper bound, the last partition has no bound
+	private static Map<String, Long> partitions(Connection conn, Table table) throws SQLException {
+		var sql = """
+					SELECT `PARTITION_NAME`, `PARTITION_DESCRIPTION`
+					FROM `information_schema`.`PARTITIONS`
+					WHERE `TABLE_SCHEMA` = DATABASE() AND `TABLE_NAME` = ? AND `PARTITION_NAME` IS NOT NULL
+					ORDER BY `PARTITION_ORDINAL_POSITION`
+				""";
+		
+		Map<String, Long> partitions = new LinkedHashMap<>();
+		try (var stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, table.table);
+			try (var rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					var description = rs.getString("PARTITION_DESCRIPTION");
+					partitions.put(rs.getString("PARTITION_NAME"),
+							"MAXVALUE".equalsIgnoreCase(description) ? null : Long.parseUnsignedLong(description));
+				}
+			}
+		}
+		return partitions;
+	}
+	
+	private static boolean exists(Connection conn, String table) throws SQLException {
+		var sql = "SELECT 1 FROM `information_schema`.`TABLES` WHERE `TABLE_SCHEMA` = DATABASE() AND `TABLE_NAME` = ?";
+		try (var stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, table);
+			try (var rs = stmt.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+	
+	private static boolean isEmpty(Connection conn, String table) throws SQLException {
+		return noRows(conn, "SELECT 1 FROM `%s` LIMIT 1".formatted(table));
+	}
+	
+	private static boolean isEmpty(Connection conn, String table, String partition) throws SQLException {
+		return noRows(conn, "SELECT 1 FROM `%s` PARTITION (`%s`) LIMIT 1".formatted(table, partition));
+	}
+	
+	private static boolean noRows(Connection conn, String sql) throws SQLException {
+		try (var stmt = conn.createStatement(); var rs = stmt.executeQuery(sql)) {
+			return !rs.next();
+		}
+	}
+	
+	private static void execute(Connection conn, String sql) throws SQLException {
+		try (var stmt = conn.createStatement()) {
+			stmt.execute(sql);
+		}
+	}
+	
+	private static Instant start(YearMonth month) {
+		return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+	}
+	
+	private enum Table {
+		CHATLOG("chatlog") {
+			@Override
+			protected long bound(Instant instant) {
+				return instant.getEpochSecond();
+			}
+			
+			@Override
+			protected Instant instant(long bound) {
+				return Instant.ofEpochSecond(bound);
+			}
+			
+			@Override
+			protected Integer retention(Config cfg) {
+				return cfg.chatlog;
+			}
+		},
+		
+		// partitioned by message id, which contains the creation time
+		DISCORD_MESSAGE_TRACE("discord_message_trace") {
+			@Override
+			protected long bound(Instant instant) {
+				return (instant.toEpochMilli() - DISCORD_EPOCH) << 22;
+			}
+			
+			@Override
+			protected Instant instant(long bound) {
+				return Instant.ofEpochMilli((bound >>> 22) + DISCORD_EPOCH);
+			}
+			
+			@Override
+			protected Integer retention(Config cfg) {
+				return cfg.discordMessageTrace;
+			}
+		};
+		
+		private final String table;
+		
+		Table(String table) {
+			this.table = table;
+		}
+		
+		protected abstract long bound(Instant instant);
+		
+		protected abstract Instant instant(long bound);
+		
+		protected abstract Integer retention(Config cfg);
+	}
+	
+	@ToString
+	public static class Config {
+		
+		@Getter private boolean enabled = true;
+		@Getter private long interval = 12; // time between runs in hours
+		private int monthsAhead = 2; // number of months that are created ahead of time
+		private boolean archive; // move expired partitions into archive tables instead of dropping them
+		
+		// retention in months, null keeps rows forever
+		private Integer chatlog;
+		private Integer discordMessageTrace;
+	}
+}
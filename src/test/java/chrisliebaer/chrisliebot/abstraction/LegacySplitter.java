@@ -0,0 +1,59 @@
+package chrisliebaer.chrisliebot.abstraction;
+
+import chrisliebaer.chrisliebot.C;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Copy of the splitting loop of {@link LimiterConfig} before lines were measured in bytes. Tests check the new splitter
+ * against it and benchmarks compare both, so it's kept in a single place.
+ */
+final class LegacySplitter {
+	
+	private static final String PREFIX = String.valueOf(C.ZERO_WIDTH_NO_BREAK_SPACE);
+	
+	// the old splitter counted the prefix as a single character, it takes 3 bytes though
+	private static final int PREFIX_OVERHEAD = 2;
+	
+	private LegacySplitter() {}
+	
+	/**
+	 * Splits the given message like the old splitter did for lines of the given length. The limit is given in bytes, so
+	 * results on ASCII text can be compared with {@link LimiterConfig#split(String, int)} directly.
+	 */
+	static List<String> split(String message, int limit) {
+		limit -= PREFIX_OVERHEAD + PREFIX.length();
+		
+		List<String> out = new ArrayList<>();
+		for (var line : C.NEWLINE_PATTERN.split(message)) {
+			ArrayDeque<String> remain = new ArrayDeque<>(Arrays.asList(line.split(" ")));
+			StringBuilder sb = new StringBuilder();
+			
+			while (!remain.isEmpty()) {
+				if (remain.peekFirst().length() + sb.length() + 1 > limit) {
+					if (sb.length() == 0) {
+						String s = remain.removeFirst();
+						sb.append(s, 0, limit + 1);
+						remain.addFirst(s.substring(limit + 1));
+						continue;
+					}
+					
+					out.add(PREFIX + sb.toString());
+					sb.setLength(0);
+				} else {
+					if (sb.length() != 0)
+						sb.append(' ');
+					
+					sb.append(remain.removeFirst());
+				}
+			}
+			
+			if (sb.length() != 0)
+				out.add(PREFIX + sb.toString());
+		}
+		return out;
+	}
+}
@@ -0,0 +1,133 @@
+package chrisliebaer.chrisliebot.abstraction;
+
+import chrisliebaer.chrisliebot.C;
+import chrisliebaer.chrisliebot.command.ChrislieListener;
+import chrisliebaer.chrisliebot.config.flex.FlexConf;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Combinators;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+import net.jqwik.api.Tuple;
+import net.jqwik.api.constraints.IntRange;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LimiterConfigTest {
+	
+	private static final String PREFIX = String.valueOf(C.ZERO_WIDTH_NO_BREAK_SPACE);
+	
+	// a color code that is missing its digits, which means the digits ended up on another line
+	private static final Pattern BROKEN_COLOR = Pattern.compile("\u0003(?!\\d{2},\\d{2})");
+	
+	private final LimiterConfig cfg = limiter(Map.of("limitercfg.maxLines", Integer.MAX_VALUE));
+	
+	@Property
+	void linesFitIntoLimit(@ForAll("messages") String message, @ForAll @IntRange(min = 10, max = 200) int limit) {
+		for (var line : cfg.split(message, limit))
+			assertTrue(line.getBytes(StandardCharsets.UTF_8).length <= limit, () -> "line exceeds " + limit + " bytes: " + line);
+	}
+	
+	@Property
+	void surrogatePairsAreNeverSplit(@ForAll("messages") String message, @ForAll @IntRange(min = 10, max = 200) int limit) {
+		for (var line : cfg.split(message, limit)) {
+			assertFalse(Character.isLowSurrogate(line.charAt(PREFIX.length())), () -> "line starts with low surrogate: " + line);
+			assertFalse(Character.isHighSurrogate(line.charAt(line.length() - 1)), () -> "line ends with high surrogate: " + line);
+		}
+	}
+	
+	@Property
+	void colorCodesAreNeverSplit(@ForAll("messages") String message, @ForAll @IntRange(min = 10, max = 200) int limit) {
+		for (var line : cfg.split(message, limit))
+			assertFalse(BROKEN_COLOR.matcher(line).find(), () -> "line contains incomplete color code: " + line);
+	}
+	
+	@Property
+	void textIsKeptExceptForBreakPoints(@ForAll("messages") String message, @ForAll @IntRange(min = 10, max = 200) int limit) {
+		var sb = new StringBuilder();
+		for (var line : cfg.split(message, limit)) {
+			assertTrue(line.startsWith(PREFIX), () -> "line is missing prefix: " + line);
+			assertTrue(line.length() > PREFIX.length(), "empty line");
+			sb.append(line, PREFIX.length(), line.length());
+		}
+		assertEquals(stripBreakPoints(message), stripBreakPoints(sb.toString()));
+	}
+	
+	@Property
+	void matchesLegacySplitOnAsciiText(@ForAll("asciiMessages") String message, @ForAll @IntRange(min = 20, max = 200) int limit) {
+		assertEquals(LegacySplitter.split(message, limit), cfg.split(message, limit));
+	}
+	
+	@Test
+	void longWordsAreBrokenAtLimit() {
+		var lines = cfg.split("a".repeat(25), 13);
+		assertEquals(List.of(PREFIX + "a".repeat(10), PREFIX + "a".repeat(10), PREFIX + "aaaaa"), lines);
+	}
+	
+	@Test
+	void multiByteCharactersAreCountedInBytes() {
+		// each umlaut takes two bytes, so only 5 fit into 10 bytes
+		var lines = cfg.split("ääääääää", 13);
+		assertEquals(List.of(PREFIX + "äääää", PREFIX + "äää"), lines);
+	}
+	
+	@Test
+	void excessLinesAreCut() {
+		var limiter = limiter(Map.of("limitercfg.maxLines", 2, "limitercfg.cutNotice", true));
+		var lines = limiter.split("a\nb\nc\nd", 100);
+		assertEquals(List.of(PREFIX + "a", PREFIX + "b (2 Zeile(n) wurden abgeschnitten.)"), lines);
+	}
+	
+	@Provide
+	Arbitrary<String> messages() {
+		var words = Arbitraries.strings().withCharRange('a', 'z').ofMinLength(1).ofMaxLength(30);
+		var umlauts = Arbitraries.strings().withChars("äöüßÄÖÜ€").ofMinLength(1).ofMaxLength(10);
+		var emoji = Arbitraries.of("😀", "👍", "🤔", "𐍈");
+		var colors = Combinators.combine(Arbitraries.integers().between(0, 99), Arbitraries.integers().between(0, 99))
+				.as((fg, bg) -> "\u0003%02d,%02d".formatted(fg, bg));
+		var separators = Arbitraries.frequency(Tuple.of(8, " "), Tuple.of(1, "  "), Tuple.of(1, "\n"), Tuple.of(1, "\r\n"), Tuple.of(1, "\u2028"));
+		
+		return Arbitraries.oneOf(words, umlauts, emoji, colors, separators)
+				.list().ofMaxSize(100)
+				.map(tokens -> String.join("", tokens));
+	}
+	
+	// the old splitter overshot words that didn't fit on a single line and kept trailing spaces, so only text without either is compared
+	@Provide
+	Arbitrary<String> asciiMessages() {
+		var words = Arbitraries.strings().withCharRange('a', 'z').ofMinLength(1).ofMaxLength(15);
+		var separators = Arbitraries.frequency(Tuple.of(8, " "), Tuple.of(1, "\n"));
+		
+		return Combinators.combine(words, separators).as((word, separator) -> word + separator)
+				.list().ofMaxSize(60)
+				.map(tokens -> String.join("", tokens).strip());
+	}
+	
+	private static String stripBreakPoints(String s) {
+		return C.NEWLINE_PATTERN.matcher(s).replaceAll("").replace(" ", "");
+	}
+	
+	private static LimiterConfig limiter(Map<String, Object> values) {
+		try {
+			return LimiterConfig.of(new FlexConf(new FlexConf.Resolver() {
+				@Override
+				public Optional<Object> get(String key, Type type) {
+					return Optional.ofNullable(values.get(key));
+				}
+			}));
+		} catch (ChrislieListener.ListenerException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
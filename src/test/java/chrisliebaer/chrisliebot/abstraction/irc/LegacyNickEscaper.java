@@ -0,0 +1,27 @@
+package chrisliebaer.chrisliebot.abstraction.irc;
+
+import chrisliebaer.chrisliebot.C;
+
+import java.util.Collection;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Copy of the nickname escaping before nicknames were kept in a prefix tree. Tests check {@link NickEscaper} against it
+ * and benchmarks compare both, so it's kept in a single place.
+ */
+final class LegacyNickEscaper {
+	
+	private LegacyNickEscaper() {}
+	
+	// the pattern over all nicknames was compiled for every message
+	static String escape(Collection<String> nicks, String s) {
+		var pattern = Pattern.compile(nicks.stream().map(Pattern::quote).collect(Collectors.joining("|")), Pattern.CASE_INSENSITIVE);
+		return pattern.matcher(s).replaceAll(r -> {
+			var nick = r.group();
+			if (nick.length() <= 1)
+				return nick;
+			return nick.substring(0, 1) + C.ZERO_WIDTH_NO_BREAK_SPACE + nick.substring(1);
+		});
+	}
+}
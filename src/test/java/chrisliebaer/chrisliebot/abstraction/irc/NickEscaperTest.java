@@ -0,0 +1,86 @@
+package chrisliebaer.chrisliebot.abstraction.irc;
+
+import chrisliebaer.chrisliebot.C;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+import net.jqwik.api.constraints.Size;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NickEscaperTest {
+	
+	private static final char ZW = C.ZERO_WIDTH_NO_BREAK_SPACE;
+	
+	// as long as no nickname is the prefix of another one, the first and the longest match are the same
+	@Property
+	void matchesLegacyPatternForPrefixFreeNicks(@ForAll("nicks") @Size(max = 20) Set<String> nicks, @ForAll("texts") String text) {
+		var prefixFree = nicks.stream()
+				.filter(n -> nicks.stream().noneMatch(o -> !o.equalsIgnoreCase(n) && o.toLowerCase(Locale.ROOT).startsWith(n.toLowerCase(Locale.ROOT))))
+				.collect(Collectors.toList());
+		
+		assertEquals(LegacyNickEscaper.escape(prefixFree, text), new NickEscaper(prefixFree).escape(text));
+	}
+	
+	@Property
+	void escapingOnlyInsertsZeroWidthCharacters(@ForAll("nicks") @Size(max = 20) Set<String> nicks, @ForAll("texts") String text) {
+		var escaped = new NickEscaper(nicks).escape(text);
+		assertEquals(text, escaped.replace(String.valueOf(ZW), ""));
+	}
+	
+	@Test
+	void longestNickIsEscaped() {
+		var nicks = List.of("chris", "chrisliebot", "liebot");
+		
+		// the pattern took the first alternative and then matched the rest of the word again
+		assertEquals("c" + ZW + "hrisl" + ZW + "iebot", LegacyNickEscaper.escape(nicks, "chrisliebot"));
+		assertEquals("c" + ZW + "hrisliebot", new NickEscaper(nicks).escape("chrisliebot"));
+	}
+	
+	@Test
+	void matchingIgnoresCase() {
+		var escaper = new NickEscaper(List.of("Chris"));
+		assertEquals("hallo c" + ZW + "HRIS und C" + ZW + "hris", escaper.escape("hallo cHRIS und Chris"));
+	}
+	
+	@Test
+	void singleCharacterNicksAreKept() {
+		var escaper = new NickEscaper(List.of("a"));
+		assertEquals("a b a", escaper.escape("a b a"));
+	}
+	
+	@Test
+	void removedNicksAreNoLongerEscaped() {
+		var escaper = new NickEscaper(List.of("chris", "chrisliebot"));
+		assertTrue(escaper.remove("chrisliebot"));
+		assertFalse(escaper.remove("chrisliebot"));
+		assertEquals("c" + ZW + "hrisliebot", escaper.escape("chrisliebot"));
+		
+		assertTrue(escaper.remove("chris"));
+		assertEquals("chrisliebot", escaper.escape("chrisliebot"));
+		
+		escaper.add("liebot");
+		assertEquals("chrisl" + ZW + "iebot", escaper.escape("chrisliebot"));
+	}
+	
+	@Provide
+	Arbitrary<Set<String>> nicks() {
+		// small alphabet, so nicknames share prefixes and show up in texts
+		return Arbitraries.strings().withChars("abcAB_[").ofMinLength(1).ofMaxLength(6).set();
+	}
+	
+	@Provide
+	Arbitrary<String> texts() {
+		return Arbitraries.strings().withChars("abcAB_[ ").ofMaxLength(60);
+	}
+}